@@ -0,0 +1,272 @@
+package org.jujubeframework.util;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分片上传的组装器：预先分配目标文件的空间，每个分片到达时直接写入它在文件中的位置（定位写，不改变通道的位置），
+ * 所以分片可以乱序、并发地上传，不需要先保存分片再合并。<br>
+ * 用位图记录收到的分片，最后一个分片写完时把临时文件改名为目标文件，不需要额外的合并过程
+ *
+ * @author John Li
+ */
+public class ChunkAssembler implements Closeable {
+
+    /**
+     * 组装中的临时文件后缀
+     */
+    public static final String PART_SUFFIX = ".part";
+
+    private static final int CHUNK_LOCK_COUNT = 64;
+
+    private final File destFile;
+    private final File partFile;
+    private final long fileSize;
+    private final long chunkSize;
+    private final int chunkCount;
+    private final FileChannel channel;
+    /** 收到的分片，访问时需同步 */
+    private final BitSet received;
+    /** 还没有收到的分片数量 */
+    private final AtomicInteger remaining;
+    /** 分片写入时的锁，同一个分片的写入互斥，按序号分段 */
+    private final Object[] chunkLocks;
+    private volatile boolean complete;
+    /** 最后一次写入的时间，用于清理放弃的上传 */
+    private volatile long lastAccessTime = System.currentTimeMillis();
+
+    /**
+     * @param destFile
+     *            组装后的文件，组装中写入同目录下的{@link #PART_SUFFIX}临时文件
+     * @param fileSize
+     *            文件总大小
+     * @param chunkSize
+     *            分片大小，除最后一个分片外每个分片都是这个大小
+     */
+    public ChunkAssembler(File destFile, long fileSize, long chunkSize) throws IOException {
+        this(destFile, fileSize, chunkSize, new BitSet());
+    }
+
+    /**
+     * @param received
+     *            已经写入临时文件的分片，用于恢复中断的上传
+     */
+    ChunkAssembler(File destFile, long fileSize, long chunkSize, BitSet received) throws IOException {
+        Validate.isTrue(fileSize >= 0, "fileSize must not be negative");
+        Validate.isTrue(chunkSize > 0, "chunkSize must be positive");
+        this.destFile = destFile;
+        this.partFile = new File(destFile.getPath() + PART_SUFFIX);
+        this.fileSize = fileSize;
+        this.chunkSize = chunkSize;
+        long count = fileSize == 0 ? 1 : (fileSize + chunkSize - 1) / chunkSize;
+        Validate.isTrue(count <= Integer.MAX_VALUE, "too many chunks");
+        this.chunkCount = (int) count;
+        this.received = (BitSet) received.clone();
+        this.received.clear(chunkCount, Math.max(chunkCount, this.received.length()));
+        this.remaining = new AtomicInteger(chunkCount - this.received.cardinality());
+        this.chunkLocks = new Object[Math.min(chunkCount, CHUNK_LOCK_COUNT)];
+        for (int i = 0; i < chunkLocks.length; i++) {
+            chunkLocks[i] = new Object();
+        }
+
+        if (!this.received.isEmpty() && !partFile.isFile()) {
+            // 临时文件不存在时新建的文件全是0，已收到的分片实际已经丢失
+            throw new FileNotFoundException("临时文件[" + partFile.getAbsolutePath() + "]不存在，无法恢复已收到的分片");
+        }
+        File parent = partFile.getAbsoluteFile().getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(partFile, "rw")) {
+            // 预先分配空间，避免乱序写入时文件反复扩展
+            file.setLength(fileSize);
+        }
+        this.channel = FileChannel.open(partFile.toPath(), StandardOpenOption.WRITE);
+        if (remaining.get() == 0) {
+            finish();
+        }
+    }
+
+    /**
+     * 写入一个分片。同一个分片可以重复写入（例如客户端重试），已经收到的分片不再写入，不会被重试的数据覆盖
+     *
+     * @param chunkIndex
+     *            分片序号，从0开始
+     * @param in
+     *            分片内容，长度必须与分片大小一致
+     * @return 写入后所有分片是否都已收到，即目标文件已经组装完成
+     */
+    public boolean write(int chunkIndex, InputStream in) throws IOException {
+        return write(chunkIndex, Channels.newChannel(in));
+    }
+
+    /**
+     * 写入一个分片
+     *
+     * @param chunkIndex
+     *            分片序号，从0开始
+     * @param chunkFile
+     *            分片文件，长度必须与分片大小一致
+     * @return 写入后所有分片是否都已收到
+     */
+    public boolean write(int chunkIndex, File chunkFile) throws IOException {
+        try (FileChannel source = FileChannel.open(chunkFile.toPath(), StandardOpenOption.READ)) {
+            return write(chunkIndex, source);
+        }
+    }
+
+    private boolean write(int chunkIndex, ReadableByteChannel source) throws IOException {
+        return write(chunkIndex, source, null);
+    }
+
+    /**
+     * 写入一个分片，数据写入后、标记为已收到前由verifier校验（例如校验和），校验抛出异常则分片不标记为已收到。
+     * 已经收到的分片不再写入，也不会调用verifier
+     *
+     * @return 写入后所有分片是否都已收到
+     */
+    boolean write(int chunkIndex, ReadableByteChannel source, ChunkVerifier verifier) throws IOException {
+        Validate.isTrue(chunkIndex >= 0 && chunkIndex < chunkCount, "chunkIndex out of range: %s", chunkIndex);
+        lastAccessTime = System.currentTimeMillis();
+        synchronized (chunkLocks[chunkIndex % chunkLocks.length]) {
+            if (complete || isReceived(chunkIndex)) {
+                return complete;
+            }
+            transfer(chunkIndex, source);
+            if (verifier != null) {
+                verifier.verify();
+            }
+            return markReceived(chunkIndex);
+        }
+    }
+
+    private void transfer(int chunkIndex, ReadableByteChannel source) throws IOException {
+        long position = getChunkOffset(chunkIndex);
+        long length = getChunkLength(chunkIndex);
+        long written = 0;
+        while (written < length) {
+            long n = channel.transferFrom(source, position + written, length - written);
+            if (n <= 0) {
+                break;
+            }
+            written += n;
+        }
+        if (written != length || source.read(ByteBuffer.allocate(1)) > 0) {
+            throw new IOException("chunk " + chunkIndex + " length mismatch, expected " + length);
+        }
+    }
+
+    /**
+     * 标记分片已收到，最后一个分片到达时完成组装
+     */
+    private boolean markReceived(int chunkIndex) throws IOException {
+        boolean added;
+        synchronized (received) {
+            added = !received.get(chunkIndex);
+            received.set(chunkIndex);
+        }
+        if (added && remaining.decrementAndGet() == 0) {
+            finish();
+        }
+        return complete;
+    }
+
+    private synchronized void finish() throws IOException {
+        if (complete) {
+            return;
+        }
+        channel.force(false);
+        channel.close();
+        java.nio.file.Files.move(partFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        complete = true;
+    }
+
+    /**
+     * 分片在文件中的起始位置
+     */
+    public long getChunkOffset(int chunkIndex) {
+        return chunkIndex * chunkSize;
+    }
+
+    /**
+     * 分片的长度，最后一个分片可能小于分片大小
+     */
+    public long getChunkLength(int chunkIndex) {
+        return Math.min(chunkSize, fileSize - getChunkOffset(chunkIndex));
+    }
+
+    /**
+     * 已收到的分片
+     */
+    public BitSet getReceivedChunks() {
+        synchronized (received) {
+            return (BitSet) received.clone();
+        }
+    }
+
+    public boolean isReceived(int chunkIndex) {
+        synchronized (received) {
+            return received.get(chunkIndex);
+        }
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public File getDestFile() {
+        return destFile;
+    }
+
+    /**
+     * 最后一次写入分片的时间（毫秒），没有写入过则为创建的时间
+     */
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * 关闭临时文件，未完成的上传保留临时文件
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 分片写入后的校验
+     */
+    interface ChunkVerifier {
+        /**
+         * @throws IOException
+         *             校验不通过
+         */
+        void verify() throws IOException;
+    }
+}
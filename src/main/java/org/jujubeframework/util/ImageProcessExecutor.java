@@ -0,0 +1,228 @@
+package org.jujubeframework.util;
+
+import lombok.Data;
+import net.coobird.thumbnailator.geometry.Position;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片处理执行器<br>
+ * 限制的不是任务数量，而是同时解码的图片估算内存：提交任务时只读取图片文件头获得宽高，估算解码所需内存，内存额度不足时提交线程阻塞等待（背压），
+ * 等待超时抛出{@link TimeoutException}，等待的任务过多时直接拒绝（{@link RejectedExecutionException}），以避免突发的大图上传导致频繁GC甚至OOM
+ *
+ * @author John Li
+ */
+public class ImageProcessExecutor {
+
+    /**
+     * 内存额度的计量单位：1KB
+     */
+    private static final int PERMIT_UNIT = 1024;
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore memoryPermits;
+    private final int totalPermits;
+    private final int maxWaiting;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timeout = new AtomicLong();
+    private final AtomicLong processNanos = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    /**
+     * 构造
+     *
+     * @param threads
+     *            处理线程数
+     * @param maxMemoryBytes
+     *            同时处理的图片估算内存之和的上限（字节）。单张图片超过上限时，会等待其他任务全部完成后单独处理
+     * @param maxWaiting
+     *            等待内存额度的最大任务数，超过则拒绝
+     */
+    public ImageProcessExecutor(int threads, long maxMemoryBytes, int maxWaiting) {
+        Validate.isTrue(threads > 0, "threads must be greater than 0");
+        Validate.isTrue(maxMemoryBytes >= PERMIT_UNIT, "maxMemoryBytes must be at least %d", PERMIT_UNIT);
+        Validate.isTrue(maxWaiting >= 0, "maxWaiting must not be negative");
+        this.totalPermits = (int) Math.min(Integer.MAX_VALUE, maxMemoryBytes / PERMIT_UNIT);
+        this.memoryPermits = new Semaphore(totalPermits, true);
+        this.maxWaiting = maxWaiting;
+        // 获得内存额度的任务才会进入线程池，排队的任务数由内存额度限制（小图片可以同时获得很多额度），所以线程池的队列不设上限
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                new BasicThreadFactory.Builder().namingPattern("image-process-%d").build());
+    }
+
+    /**
+     * 提交图片处理任务
+     *
+     * @param sourceFile
+     *            源图片，用于估算内存
+     * @param maxWidth
+     *            处理后的最大宽度，用于估算内存
+     * @param maxHeight
+     *            处理后的最大高度，用于估算内存
+     * @param task
+     *            处理任务
+     * @param waitTimeout
+     *            等待内存额度的超时时间
+     * @throws TimeoutException
+     *             等待内存额度超时
+     * @throws RejectedExecutionException
+     *             等待的任务过多
+     */
+    public <T> Future<T> submit(File sourceFile, int maxWidth, int maxHeight, Callable<T> task, long waitTimeout, TimeUnit unit)
+            throws IOException, TimeoutException, InterruptedException {
+        long estimatedBytes = Images.estimateDecodedBytes(sourceFile, maxWidth, maxHeight);
+        int permits = (int) Math.max(1, Math.min(totalPermits, (estimatedBytes + PERMIT_UNIT - 1) / PERMIT_UNIT));
+        if (!memoryPermits.tryAcquire(permits)) {
+            if (waiting.incrementAndGet() > maxWaiting) {
+                waiting.decrementAndGet();
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException("too many image tasks waiting: " + maxWaiting);
+            }
+            long waitBegin = System.nanoTime();
+            try {
+                if (!memoryPermits.tryAcquire(permits, waitTimeout, unit)) {
+                    timeout.incrementAndGet();
+                    throw new TimeoutException("wait for image memory permits timeout, estimated bytes: " + estimatedBytes);
+                }
+            } finally {
+                waitNanos.addAndGet(System.nanoTime() - waitBegin);
+                waiting.decrementAndGet();
+            }
+        }
+        submitted.incrementAndGet();
+        try {
+            return executor.submit(() -> {
+                long begin = System.nanoTime();
+                try {
+                    T result = task.call();
+                    completed.incrementAndGet();
+                    return result;
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    throw e;
+                } finally {
+                    processNanos.addAndGet(System.nanoTime() - begin);
+                    memoryPermits.release(permits);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            memoryPermits.release(permits);
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * 提交等比压缩图像(带水印)的任务
+     *
+     * @see Images#transform(File, File, int, int, BufferedImage, float, Position)
+     */
+    public Future<Void> transform(File sourceFile, File destFile, int maxWidth, int maxHeight, BufferedImage waterMarkImage, float opacity, Position position,
+            long waitTimeout, TimeUnit unit) throws IOException, TimeoutException, InterruptedException {
+        return submit(sourceFile, maxWidth, maxHeight, () -> {
+            Images.transform(sourceFile, destFile, maxWidth, maxHeight, waterMarkImage, opacity, position);
+            return null;
+        }, waitTimeout, unit);
+    }
+
+    /**
+     * 提交等比压缩图像(原图纯压缩，不要水印)的任务
+     *
+     * @see Images#transformOrigin(File, File, int, int)
+     */
+    public Future<Void> transformOrigin(File sourceFile, File destFile, int maxWidth, int maxHeight, long waitTimeout, TimeUnit unit)
+            throws IOException, TimeoutException, InterruptedException {
+        return submit(sourceFile, maxWidth, maxHeight, () -> {
+            Images.transformOrigin(sourceFile, destFile, maxWidth, maxHeight);
+            return null;
+        }, waitTimeout, unit);
+    }
+
+    /**
+     * 获得运行指标
+     */
+    public Metrics getMetrics() {
+        Metrics metrics = new Metrics();
+        metrics.setWaiting(waiting.get());
+        metrics.setActive(executor.getActiveCount());
+        metrics.setQueued(executor.getQueue().size());
+        metrics.setUsedMemoryBytes((long) (totalPermits - memoryPermits.availablePermits()) * PERMIT_UNIT);
+        metrics.setMaxMemoryBytes((long) totalPermits * PERMIT_UNIT);
+        metrics.setSubmitted(submitted.get());
+        metrics.setCompleted(completed.get());
+        metrics.setFailed(failed.get());
+        metrics.setRejected(rejected.get());
+        metrics.setTimeout(timeout.get());
+        metrics.setProcessNanos(processNanos.get());
+        metrics.setWaitNanos(waitNanos.get());
+        return metrics;
+    }
+
+    /**
+     * 关闭执行器，已提交的任务会继续执行
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 等待已提交的任务执行完毕
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * 运行指标
+     */
+    @Data
+    public static class Metrics {
+        /** 正在等待内存额度的任务数 */
+        private int waiting;
+        /** 正在处理的任务数 */
+        private int active;
+        /** 已获得内存额度、等待线程的任务数 */
+        private int queued;
+        /** 已占用的估算内存（字节） */
+        private long usedMemoryBytes;
+        private long maxMemoryBytes;
+        private long submitted;
+        private long completed;
+        private long failed;
+        /** 被拒绝的任务数 */
+        private long rejected;
+        /** 等待内存额度超时的任务数 */
+        private long timeout;
+        /** 所有任务处理耗时之和（纳秒） */
+        private long processNanos;
+        /** 所有任务等待内存额度的耗时之和（纳秒） */
+        private long waitNanos;
+
+        /**
+         * 排队深度：等待内存额度与等待线程的任务数之和
+         */
+        public int getQueueDepth() {
+            return waiting + queued;
+        }
+
+        /**
+         * 平均处理耗时（毫秒）
+         */
+        public double getAverageProcessMillis() {
+            long finished = completed + failed;
+            return finished == 0 ? 0 : processNanos / 1e6 / finished;
+        }
+    }
+}
@@ -2,13 +2,21 @@ package org.jujubeframework.util;
 
 import com.drew.imaging.ImageMetadataReader;
 import com.drew.imaging.ImageProcessingException;
+import com.drew.metadata.Directory;
 import com.drew.metadata.Metadata;
+import com.drew.metadata.MetadataException;
 import com.drew.metadata.adobe.AdobeJpegDirectory;
+import com.drew.metadata.bmp.BmpHeaderDirectory;
 import com.drew.metadata.exif.ExifIFD0Directory;
 import com.drew.metadata.file.FileTypeDirectory;
+import com.drew.metadata.gif.GifHeaderDirectory;
 import com.drew.metadata.icc.IccDirectory;
+import com.drew.metadata.jpeg.JpegDirectory;
+import com.drew.metadata.png.PngDirectory;
+import com.drew.metadata.webp.WebpDirectory;
 import io.github.biezhi.webp.WebpIO;
 import lombok.AccessLevel;
+import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.coobird.thumbnailator.Thumbnails;
@@ -27,12 +35,13 @@ import javax.imageio.*;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Iterator;
+import java.util.*;
 import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * 图像处理工具类
@@ -56,6 +65,39 @@ public class Images {
      * 默认的水印透明度
      */
     private static final float DEFAULF_OPACITY = 0.45f;
+    /**
+     * webp文件头的长度
+     */
+    private static final int WEBP_HEADER_LENGTH = 12;
+    /**
+     * 读取webp尺寸需要的文件头长度
+     */
+    private static final int WEBP_DIMENSION_HEADER_LENGTH = 30;
+    /**
+     * 水印缓存的最大数量
+     */
+    private static final int WATERMARK_CACHE_SIZE = 64;
+    /**
+     * 水印按目标图片宽度分桶缓存，桶的宽度（像素）
+     */
+    private static final int WATERMARK_WIDTH_BUCKET = 32;
+    /**
+     * 缩放后的水印缓存（LRU），key为水印来源与目标宽度桶
+     */
+    private static final Map<WatermarkKey, BufferedImage> WATERMARK_CACHE = Collections.synchronizedMap(new LinkedHashMap<WatermarkKey, BufferedImage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<WatermarkKey, BufferedImage> eldest) {
+            return size() > WATERMARK_CACHE_SIZE;
+        }
+    });
+    /**
+     * 调整透明度时，像素数超过该值则并行处理
+     */
+    private static final int ALPHA_PARALLEL_THRESHOLD = 1 << 20;
+    /**
+     * 调整透明度并行处理时，每个条带的行数
+     */
+    private static final int ALPHA_STRIPE_ROWS = 64;
     /** FSImageWriter的实例 */
     public static final FSImageWriter FS_IMAGE_WRITER = FSImageWriter.newJpegWriter(1f);
 
@@ -72,7 +114,7 @@ public class Images {
      *            压缩后允许的最大高度
      */
     public static void transformOrigin(File sourceFile, File destFile, int maxWidth, int maxHeight) throws IOException {
-        BufferedImage srcImage = getImage(sourceFile);
+        BufferedImage srcImage = getImage(sourceFile, maxWidth, maxHeight);
         Thumbnails.of(srcImage).size(maxWidth, maxHeight).toFile(destFile);
     }
 
@@ -89,15 +131,7 @@ public class Images {
      *            压缩后允许的最大高度
      */
     public static void transform(File sourceFile, File destFile, int maxWidth, int maxHeight, BufferedImage waterMarkImage) throws IOException {
-        rotateImage(sourceFile);
-        try {
-            BufferedImage image = Thumbnails.of(sourceFile).scale(1).rotate(0).asBufferedImage();
-            innerTransform(image, destFile, maxWidth, maxHeight, waterMarkImage, DEFAULF_OPACITY, Positions.CENTER);
-        } catch (Exception e) { // 有时用常规的读取会报错，所以加下面一层
-            log.error("transform常规处理出错，使用扩展图片读取器再试一遍。sourceFile:{},destFile:{}", sourceFile.getAbsolutePath(), destFile.getAbsolutePath());
-            BufferedImage image = getImage(sourceFile);
-            innerTransform(image, destFile, maxWidth, maxHeight, waterMarkImage, DEFAULF_OPACITY, Positions.CENTER);
-        }
+        transform(sourceFile, destFile, maxWidth, maxHeight, waterMarkImage, DEFAULF_OPACITY, Positions.CENTER);
     }
 
     /**
@@ -118,67 +152,107 @@ public class Images {
      *
      */
     public static void transform(File sourceFile, File destFile, int maxWidth, int maxHeight, BufferedImage waterMarkImage, float opacity, Position position) throws IOException {
-        rotateImage(sourceFile);
+        BufferedImage image = readOrientedImage(sourceFile, maxWidth, maxHeight);
+        innerTransform(image, destFile, maxWidth, maxHeight, waterMarkImage, opacity, position);
+    }
+
+    /**
+     * 读取图片，并根据EXIF中的方向信息在内存中更正。源文件只读取一次，且不会被修改
+     *
+     * @param maxWidth
+     *            更正方向后允许的最大宽度，用于降采样解码，小于等于0则按原尺寸解码
+     * @param maxHeight
+     *            更正方向后允许的最大高度，用于降采样解码，小于等于0则按原尺寸解码
+     */
+    static BufferedImage readOrientedImage(File sourceFile, int maxWidth, int maxHeight) throws IOException {
+        byte[] bytes = FileUtils.readFileToByteArray(sourceFile);
+        if (isWebp(bytes, bytes.length)) {
+            return getImage(sourceFile, maxWidth, maxHeight);
+        }
+        ExifIFD0Directory directory = null;
         try {
-            BufferedImage image = Thumbnails.of(sourceFile).scale(1).rotate(0).asBufferedImage();
-            innerTransform(image, destFile, maxWidth, maxHeight, waterMarkImage, opacity, position);
-        } catch (Exception e) { // 有时用常规的读取会报错，所以加下面一层
-            log.error("transform常规处理出错，使用扩展图片读取器再试一遍。sourceFile:{},destFile:{}", sourceFile.getAbsolutePath(), destFile.getAbsolutePath());
-            BufferedImage image = getImage(sourceFile);
-            innerTransform(image, destFile, maxWidth, maxHeight, waterMarkImage, opacity, position);
+            Metadata metadata = ImageMetadataReader.readMetadata(new ByteArrayInputStream(bytes));
+            directory = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+        } catch (ImageProcessingException ignored) {
         }
+        int orientation = getAppliedOrientation(directory);
+        BufferedImage image;
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            // 方向为5-8时，图片会旋转90度，解码时的宽高限制需要互换
+            boolean swap = orientation >= 5;
+            image = readImage(input, sourceFile.getAbsolutePath(), swap ? maxHeight : maxWidth, swap ? maxWidth : maxHeight);
+        }
+        return orientation > 1 ? transformByOrientation(image, orientation) : image;
     }
 
     /**
-     * 本来应该根据图片旋转的角度来进行更正
+     * 需要更正的EXIF方向，不需要更正时返回1
      */
-    private static void rotateImage(File sourceFile) throws IOException {
-        try (InputStream inputStream = new FileInputStream(sourceFile)) {
-            Metadata metadata = ImageMetadataReader.readMetadata(new ByteArrayInputStream(IOUtils.toByteArray(inputStream)));
-            ExifIFD0Directory directory = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
-            if (directory == null) {
-                return;
-            }
-            Integer orientation = directory.getInteger(ExifIFD0Directory.TAG_ORIENTATION);
-            // 进行图片旋转
-            if (orientation != null) {
-                // 把这些特殊的图片暂时放到试验地
-                if (orientation > 1) {
-                    FileUtils.copyFile(sourceFile, new File("/tmp/" + sourceFile.getName()));
-                }
-                int turn = 0;
-                int i3 = 3;
-                int i6 = 6;
-                int i8 = 8;
-                if (orientation == i3) {
-                    turn = 180;
-                } else if (orientation == i6) {
-                    turn = 90;
-                } else if (orientation == i8) {
-                    turn = 270;
-                }
+    static int getAppliedOrientation(ExifIFD0Directory directory) {
+        if (directory == null) {
+            return 1;
+        }
+        Integer orientation = directory.getInteger(ExifIFD0Directory.TAG_ORIENTATION);
+        if (orientation == null || orientation <= 1 || orientation > 8) {
+            return 1;
+        }
+        // 测试发现，对于佳能来说，旋转类的方向信息不需要处理
+        String canon = "Canon";
+        boolean rotation = orientation == 3 || orientation == 6 || orientation == 8;
+        if (rotation && directory.containsTag(ExifIFD0Directory.TAG_MAKE) && canon.equalsIgnoreCase(directory.getDescription(ExifIFD0Directory.TAG_MAKE))) {
+            return 1;
+        }
+        return orientation;
+    }
 
-                if (turn > 0) {
-                    if (directory.containsTag(ExifIFD0Directory.TAG_MAKE)) {
-                        String mark = directory.getDescription(ExifIFD0Directory.TAG_MAKE);
-                        // 测试发现，对于佳能来说，只有旋转360°才回复正常
-                        String canon = "Canon";
-                        if (canon.equalsIgnoreCase(mark)) {
-                            turn = 360;
-                        }
-                        // 对于iphone，这里不处理，交由下一步
-                        String regEx = "[iI][pP]hone";
-                        if (Texts.find(mark, regEx)) {
-                            return;
-                        }
-                    }
-                    BufferedImage image = rotate(ImageIO.read(sourceFile), turn);
-                    ImageIO.write(image, "jpg", sourceFile);
-                }
-            }
-        } catch (ImageProcessingException e1) {
-            // nothing
+    /**
+     * 根据EXIF方向值（1-8）对图片进行旋转或镜像
+     */
+    static BufferedImage transformByOrientation(BufferedImage image, int orientation) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        AffineTransform transform = new AffineTransform();
+        switch (orientation) {
+        case 2:
+            transform.scale(-1.0, 1.0);
+            transform.translate(-width, 0);
+            break;
+        case 3:
+            transform.translate(width, height);
+            transform.rotate(Math.PI);
+            break;
+        case 4:
+            transform.scale(1.0, -1.0);
+            transform.translate(0, -height);
+            break;
+        case 5:
+            transform.rotate(-Math.PI / 2);
+            transform.scale(-1.0, 1.0);
+            break;
+        case 6:
+            transform.translate(height, 0);
+            transform.rotate(Math.PI / 2);
+            break;
+        case 7:
+            transform.scale(-1.0, 1.0);
+            transform.translate(-height, 0);
+            transform.translate(0, width);
+            transform.rotate(3 * Math.PI / 2);
+            break;
+        case 8:
+            transform.translate(0, width);
+            transform.rotate(3 * Math.PI / 2);
+            break;
+        default:
+            return image;
         }
+        boolean swap = orientation >= 5;
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage result = new BufferedImage(swap ? height : width, swap ? width : height, type);
+        Graphics2D g2 = result.createGraphics();
+        g2.drawImage(image, transform, null);
+        g2.dispose();
+        return result;
     }
 
     /**
@@ -195,9 +269,7 @@ public class Images {
         BufferedImage image = builder.asBufferedImage();
         // 给网站的图片打上水印
         if (watermarkImage != null) {
-            double ratio = (image.getWidth() / 8.0) / watermarkImage.getWidth();
-            watermarkImage = Thumbnails.of(watermarkImage).scale(ratio).asBufferedImage();
-            builder.watermark(position, watermarkImage, opacity);
+            builder.watermark(position, getScaledWatermark(watermarkImage, image.getWidth()), opacity);
         } else {
             log.error("innerTransform 水印图片读取失败。watermarkImage:{}", watermarkImage);
         }
@@ -217,9 +289,7 @@ public class Images {
         if (StringUtils.isNotBlank(waterMarkImagePath)) {
             float opacity = 0.4f;
             BufferedImage image = builder.asBufferedImage();
-            BufferedImage watermarkImage = ImageIO.read(new File(waterMarkImagePath));
-            double ratio = (image.getWidth() / 8.0) / watermarkImage.getWidth();
-            watermarkImage = Thumbnails.of(watermarkImage).scale(ratio).asBufferedImage();
+            BufferedImage watermarkImage = getScaledWatermark(new File(waterMarkImagePath), image.getWidth());
 
             List<Integer> xList = new ArrayList<>();
             List<Integer> yList = new ArrayList<>();
@@ -236,6 +306,107 @@ public class Images {
         builder.toFile(destFile);
     }
 
+    /**
+     * 获得按目标图片宽度缩放后的水印（宽度为目标图片的1/8），结果按水印实例与宽度桶缓存。<br>
+     * 缓存以实例区分水印，修改已使用过的水印图片不会使缓存失效；返回的图片是共享的，不要修改
+     */
+    static BufferedImage getScaledWatermark(BufferedImage watermarkImage, int imageWidth) throws IOException {
+        int bucketWidth = watermarkBucketWidth(imageWidth);
+        WatermarkKey key = new WatermarkKey(watermarkImage, 0, bucketWidth);
+        BufferedImage scaled = WATERMARK_CACHE.get(key);
+        if (scaled == null) {
+            scaled = scaleWatermark(watermarkImage, bucketWidth);
+            WATERMARK_CACHE.put(key, scaled);
+        }
+        return scaled;
+    }
+
+    /**
+     * 获得按目标图片宽度缩放后的水印，水印文件修改后缓存自动失效
+     *
+     * @see #getScaledWatermark(BufferedImage, int)
+     */
+    static BufferedImage getScaledWatermark(File watermarkFile, int imageWidth) throws IOException {
+        int bucketWidth = watermarkBucketWidth(imageWidth);
+        WatermarkKey key = new WatermarkKey(watermarkFile.getAbsolutePath(), watermarkFile.lastModified(), bucketWidth);
+        BufferedImage scaled = WATERMARK_CACHE.get(key);
+        if (scaled == null) {
+            BufferedImage watermarkImage = ImageIO.read(watermarkFile);
+            if (watermarkImage == null) {
+                throw new IIOException("Unable to read watermark image:" + watermarkFile);
+            }
+            scaled = scaleWatermark(watermarkImage, bucketWidth);
+            WATERMARK_CACHE.put(key, scaled);
+        }
+        return scaled;
+    }
+
+    /**
+     * 清空水印缓存
+     */
+    public static void clearWatermarkCache() {
+        WATERMARK_CACHE.clear();
+    }
+
+    /**
+     * 目标图片宽度向上取整到桶的宽度，相近宽度的图片共用同一个水印
+     */
+    private static int watermarkBucketWidth(int imageWidth) {
+        return Math.max(1, (imageWidth + WATERMARK_WIDTH_BUCKET - 1) / WATERMARK_WIDTH_BUCKET) * WATERMARK_WIDTH_BUCKET;
+    }
+
+    /**
+     * 缩放水印，并转换为预乘alpha的格式，叠加时不需要再逐像素乘以alpha
+     */
+    private static BufferedImage scaleWatermark(BufferedImage watermarkImage, int bucketWidth) throws IOException {
+        double ratio = (bucketWidth / 8.0) / watermarkImage.getWidth();
+        BufferedImage scaled = Thumbnails.of(watermarkImage).scale(ratio).asBufferedImage();
+        BufferedImage premultiplied = new BufferedImage(scaled.getWidth(), scaled.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2 = premultiplied.createGraphics();
+        g2.drawImage(scaled, 0, 0, null);
+        g2.dispose();
+        return premultiplied;
+    }
+
+    /**
+     * 图片信息，由{@link #probe(InputStream)}获得
+     */
+    @Data
+    public static class ImageInfo {
+        /** 文件格式，如JPEG、PNG、WebP */
+        private final String format;
+        /** 宽度，无法获得时为-1 */
+        private final int width;
+        /** 高度，无法获得时为-1 */
+        private final int height;
+        /** ICC中的Color Space，如CMYK */
+        private final String colorSpace;
+        /** Adobe JPEG中的Color Transform，如YCCK */
+        private final String colorTransform;
+        /** EXIF中的方向，1-8，没有时为1 */
+        private final int orientation;
+
+        public boolean isCmyk() {
+            return "CMYK".equalsIgnoreCase(colorSpace);
+        }
+
+        public boolean isYcck() {
+            return "YCCK".equalsIgnoreCase(colorTransform);
+        }
+    }
+
+    /**
+     * 水印缓存的key
+     */
+    @Data
+    private static class WatermarkKey {
+        /** 水印图片实例（按实例比较）或水印文件路径 */
+        private final Object source;
+        /** 水印文件的修改时间 */
+        private final long lastModified;
+        private final int bucketWidth;
+    }
+
     /**
      * 根据原图尺寸和水印尺寸获得水印坐标
      */
@@ -255,55 +426,272 @@ public class Images {
      * @return WebP、JPEG等，如果读取失败，则返回null
      */
     public static String getFileType(InputStream inputStream) {
+        ImageInfo info = probe(inputStream);
+        return info == null ? null : info.getFormat();
+    }
+
+    /**
+     * @see #getFileType(InputStream)
+     */
+    public static String getFileType(File file) {
+        ImageInfo info = probe(file);
+        return info == null ? null : info.getFormat();
+    }
+
+    /**
+     * 探测图片信息：格式、宽高、颜色空间、方向。不解码像素，也不会把整个流读入内存，只顺序读取。
+     * 读取的范围取决于格式：JPEG读到图像数据之前为止；PNG等按块组织的格式会逐块扫描到文件末尾（跳过图像数据，但仍会读完整个流）。
+     * 输入流需由调用者关闭
+     *
+     * @return 如果无法识别，则返回null
+     */
+    public static ImageInfo probe(InputStream inputStream) {
         try {
-            Metadata metadata = ImageMetadataReader.readMetadata(new ByteArrayInputStream(IOUtils.toByteArray(inputStream)));
+            Metadata metadata = ImageMetadataReader.readMetadata(inputStream);
             FileTypeDirectory typeDirectory = metadata.getFirstDirectoryOfType(FileTypeDirectory.class);
-            return typeDirectory.getString(FileTypeDirectory.TAG_DETECTED_FILE_TYPE_NAME);
-        } catch (ImageProcessingException | IOException ignored) {
+            String format = typeDirectory == null ? null : typeDirectory.getString(FileTypeDirectory.TAG_DETECTED_FILE_TYPE_NAME);
+            Dimension dimension = getDimension(metadata);
+            IccDirectory iccDirectory = metadata.getFirstDirectoryOfType(IccDirectory.class);
+            String colorSpace = iccDirectory == null ? null : iccDirectory.getDescription(IccDirectory.TAG_COLOR_SPACE);
+            AdobeJpegDirectory adobeJpegDirectory = metadata.getFirstDirectoryOfType(AdobeJpegDirectory.class);
+            String colorTransform = adobeJpegDirectory == null ? null : adobeJpegDirectory.getDescription(AdobeJpegDirectory.TAG_COLOR_TRANSFORM);
+            ExifIFD0Directory exifDirectory = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+            int orientation = 1;
+            if (exifDirectory != null && exifDirectory.containsTag(ExifIFD0Directory.TAG_ORIENTATION)) {
+                orientation = exifDirectory.getInt(ExifIFD0Directory.TAG_ORIENTATION);
+            }
+            return new ImageInfo(format, dimension == null ? -1 : dimension.width, dimension == null ? -1 : dimension.height, colorSpace, colorTransform, orientation);
+        } catch (ImageProcessingException | MetadataException | IOException ignored) {
         }
         return null;
     }
 
     /**
-     * @see #getFileType(InputStream)
+     * @see #probe(InputStream)
      */
-    public static String getFileType(File file) {
-        try (InputStream fileInputStream = new FileInputStream(file)) {
-            return getFileType(fileInputStream);
+    public static ImageInfo probe(File file) {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            return probe(inputStream);
         } catch (IOException ignored) {
         }
         return null;
     }
 
+    /**
+     * 从各格式的文件头目录中获得宽高
+     *
+     * @return 如果没有，则返回null
+     */
+    private static Dimension getDimension(Metadata metadata) throws MetadataException {
+        JpegDirectory jpegDirectory = metadata.getFirstDirectoryOfType(JpegDirectory.class);
+        if (jpegDirectory != null) {
+            return getDimension(jpegDirectory, JpegDirectory.TAG_IMAGE_WIDTH, JpegDirectory.TAG_IMAGE_HEIGHT);
+        }
+        // png的每种chunk对应一个PngDirectory，宽高在IHDR中
+        for (PngDirectory pngDirectory : metadata.getDirectoriesOfType(PngDirectory.class)) {
+            if (pngDirectory.containsTag(PngDirectory.TAG_IMAGE_WIDTH)) {
+                return getDimension(pngDirectory, PngDirectory.TAG_IMAGE_WIDTH, PngDirectory.TAG_IMAGE_HEIGHT);
+            }
+        }
+        GifHeaderDirectory gifDirectory = metadata.getFirstDirectoryOfType(GifHeaderDirectory.class);
+        if (gifDirectory != null) {
+            return getDimension(gifDirectory, GifHeaderDirectory.TAG_IMAGE_WIDTH, GifHeaderDirectory.TAG_IMAGE_HEIGHT);
+        }
+        BmpHeaderDirectory bmpDirectory = metadata.getFirstDirectoryOfType(BmpHeaderDirectory.class);
+        if (bmpDirectory != null) {
+            return getDimension(bmpDirectory, BmpHeaderDirectory.TAG_IMAGE_WIDTH, BmpHeaderDirectory.TAG_IMAGE_HEIGHT);
+        }
+        WebpDirectory webpDirectory = metadata.getFirstDirectoryOfType(WebpDirectory.class);
+        if (webpDirectory != null) {
+            return getDimension(webpDirectory, WebpDirectory.TAG_IMAGE_WIDTH, WebpDirectory.TAG_IMAGE_HEIGHT);
+        }
+        return null;
+    }
+
+    private static Dimension getDimension(Directory directory, int widthTag, int heightTag) throws MetadataException {
+        if (!directory.containsTag(widthTag) || !directory.containsTag(heightTag)) {
+            return null;
+        }
+        return new Dimension(directory.getInt(widthTag), Math.abs(directory.getInt(heightTag)));
+    }
+
     /** 根据文件获得BufferedImage */
     public static BufferedImage getImage(File sourceFile) throws IOException {
-        try (ImageInputStream input = ImageIO.createImageInputStream(sourceFile); InputStream fileInputStream = new FileInputStream(sourceFile)) {
-            // webp图片转换为jpg图片
-            if ("webp".equalsIgnoreCase(getFileType(fileInputStream))) {
-                WebpIO.toNormalImage(sourceFile, sourceFile);
+        return getImage(sourceFile, 0, 0);
+    }
+
+    /**
+     * 根据文件获得BufferedImage，大图会降采样解码，以减少内存与cpu消耗
+     *
+     * @param maxWidth
+     *            后续缩放的最大宽度。解码后的图片宽高不会小于缩放的目标尺寸，小于等于0则按原尺寸解码
+     * @param maxHeight
+     *            后续缩放的最大高度。解码后的图片宽高不会小于缩放的目标尺寸，小于等于0则按原尺寸解码
+     */
+    public static BufferedImage getImage(File sourceFile, int maxWidth, int maxHeight) throws IOException {
+        // webp图片先解码到临时文件，不改写源文件
+        if (isWebp(sourceFile)) {
+            File decoded = java.nio.file.Files.createTempFile("webp", ".png").toFile();
+            try {
+                WebpIO.toNormalImage(sourceFile, decoded);
+                try (ImageInputStream input = ImageIO.createImageInputStream(decoded)) {
+                    return readImage(input, sourceFile.getAbsolutePath(), maxWidth, maxHeight);
+                }
+            } finally {
+                FileUtils.deleteQuietly(decoded);
             }
-            // Find potential readers
-            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(sourceFile)) {
+            return readImage(input, sourceFile.getAbsolutePath(), maxWidth, maxHeight);
+        }
+    }
+
+    /**
+     * 依次尝试所有可用的ImageReader读取图片
+     */
+    private static BufferedImage readImage(ImageInputStream input, String name, int maxWidth, int maxHeight) throws IOException {
+        // Find potential readers
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+
+        // For each reader: try to read
+        while (readers != null && readers.hasNext()) {
+            ImageReader reader = readers.next();
+            BufferedImage image;
+            try {
+                input.seek(0);
+                reader.setInput(input);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (maxWidth > 0 && maxHeight > 0) {
+                    int factor = subsampling(reader.getWidth(0), reader.getHeight(0), maxWidth, maxHeight);
+                    if (factor > 1) {
+                        param.setSourceSubsampling(factor, factor, 0, 0);
+                    }
+                }
+                image = reader.read(0, param);
+                return image;
+            } catch (IIOException e) {
+                // Try next reader, ignore.
+            } finally {
+                // Close reader resources
+                reader.dispose();
+            }
+        }
 
-            // For each reader: try to read
-            while (readers != null && readers.hasNext()) {
+        // Couldn't resize with any of the readers
+        throw new IIOException("Unable to resize image:" + name);
+    }
+
+    /**
+     * 只读取文件头，获得图片的宽高，不解码像素
+     *
+     * @return 如果无法识别，则返回null
+     */
+    static Dimension readDimension(File file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            while (readers.hasNext()) {
                 ImageReader reader = readers.next();
-                BufferedImage image;
                 try {
-                    reader.setInput(input);
-                    image = reader.read(0);
-                    return image;
+                    input.seek(0);
+                    reader.setInput(input, true, true);
+                    return new Dimension(reader.getWidth(0), reader.getHeight(0));
                 } catch (IIOException e) {
                     // Try next reader, ignore.
                 } finally {
-                    // Close reader resources
                     reader.dispose();
                 }
             }
+        }
+        return null;
+    }
+
+    /**
+     * 估算把图片缩放到最大宽高内时，解码所需的内存（字节），已考虑降采样。webp没有ImageIO的读取器，尺寸从文件头中读取
+     *
+     * @return 如果无法识别图片，则返回文件大小
+     */
+    static long estimateDecodedBytes(File file, int maxWidth, int maxHeight) throws IOException {
+        Dimension dimension = readDimension(file);
+        if (dimension == null) {
+            dimension = readWebpDimension(file);
+        }
+        if (dimension == null) {
+            return file.length();
+        }
+        int factor = maxWidth > 0 && maxHeight > 0 ? subsampling(dimension.width, dimension.height, maxWidth, maxHeight) : 1;
+        long decodedPixels = (long) ((dimension.width + factor - 1) / factor) * ((dimension.height + factor - 1) / factor);
+        // 每个像素4字节；解码后的图片与方向更正、缩放产生的中间图片同时存在，按两份计算
+        return decodedPixels * 4 * 2;
+    }
+
+    /**
+     * 计算降采样系数：在保证降采样后的宽高不小于等比缩放到最大宽高内的目标尺寸的前提下，取最大的系数
+     */
+    static int subsampling(int width, int height, int maxWidth, int maxHeight) {
+        double ratio = Math.max((double) width / maxWidth, (double) height / maxHeight);
+        return Math.max(1, (int) Math.floor(ratio));
+    }
+
+    /**
+     * 从webp的文件头中读取尺寸，支持有损（VP8）、无损（VP8L）与扩展（VP8X）格式
+     *
+     * @return 不是webp或者无法识别时返回null
+     */
+    static Dimension readWebpDimension(File file) throws IOException {
+        byte[] header = new byte[WEBP_DIMENSION_HEADER_LENGTH];
+        int len;
+        try (InputStream inputStream = new FileInputStream(file)) {
+            len = IOUtils.read(inputStream, header);
+        }
+        if (len < WEBP_DIMENSION_HEADER_LENGTH || !isWebp(header, len)) {
+            return null;
+        }
+        String chunk = new String(header, 12, 4, java.nio.charset.StandardCharsets.US_ASCII);
+        switch (chunk) {
+            case "VP8 ":
+                // 3字节的帧标记之后是起始码9d 01 2a，然后是各14位的宽高
+                if ((header[23] & 0xFF) != 0x9d || (header[24] & 0xFF) != 0x01 || (header[25] & 0xFF) != 0x2a) {
+                    return null;
+                }
+                return new Dimension(littleEndian(header, 26, 2) & 0x3FFF, littleEndian(header, 28, 2) & 0x3FFF);
+            case "VP8L":
+                // 签名0x2f之后是各14位的宽-1、高-1
+                if ((header[20] & 0xFF) != 0x2f) {
+                    return null;
+                }
+                int bits = littleEndian(header, 21, 4);
+                return new Dimension((bits & 0x3FFF) + 1, ((bits >>> 14) & 0x3FFF) + 1);
+            case "VP8X":
+                // 各24位的画布宽-1、高-1
+                return new Dimension(littleEndian(header, 24, 3) + 1, littleEndian(header, 27, 3) + 1);
+            default:
+                return null;
+        }
+    }
 
-            // Couldn't resize with any of the readers
-            throw new IIOException("Unable to resize image:" + sourceFile.getAbsolutePath());
+    private static int littleEndian(byte[] bytes, int offset, int length) {
+        int value = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
         }
+        return value;
+    }
+
+    /**
+     * 根据文件头判断是否是webp图片：RIFF....WEBP
+     */
+    private static boolean isWebp(File file) throws IOException {
+        byte[] header = new byte[WEBP_HEADER_LENGTH];
+        int len;
+        try (InputStream inputStream = new FileInputStream(file)) {
+            len = IOUtils.read(inputStream, header);
+        }
+        return isWebp(header, len);
+    }
+
+    private static boolean isWebp(byte[] header, int len) {
+        return len >= WEBP_HEADER_LENGTH && header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F' && header[8] == 'W' && header[9] == 'E'
+                && header[10] == 'B' && header[11] == 'P';
     }
 
     /**
@@ -473,18 +861,11 @@ public class Images {
      * 获得图片的Color Space
      *
      * @return 如CMYK等。如果读取出错，则返回null
+     * @see #probe(InputStream)
      */
     public static String getColorSpace(InputStream inputStream) {
-        // 获取metadata可能会改变文件，所以这里做一个处理
-        try (ByteArrayInputStream stream = new ByteArrayInputStream(IOUtils.toByteArray(inputStream))) {
-            Metadata metadata = ImageMetadataReader.readMetadata(stream);
-            IccDirectory iccDirectory = metadata.getFirstDirectoryOfType(IccDirectory.class);
-            if (iccDirectory != null) {
-                return iccDirectory.getDescription(IccDirectory.TAG_COLOR_SPACE);
-            }
-        } catch (ImageProcessingException | IOException ignored) {
-        }
-        return null;
+        ImageInfo info = probe(inputStream);
+        return info == null ? null : info.getColorSpace();
     }
 
     /**
@@ -503,36 +884,23 @@ public class Images {
      * 获得图片的Color Transform
      *
      * @return 如YCCK等。如果读取出错，则返回null
+     * @see #probe(InputStream)
      */
     public static String getColorTransform(InputStream inputStream) {
-        // 获取metadata可能会改变文件，所以这里做一个处理
-        try (ByteArrayInputStream stream = new ByteArrayInputStream(IOUtils.toByteArray(inputStream))) {
-            Metadata metadata = ImageMetadataReader.readMetadata(stream);
-            AdobeJpegDirectory adobeJpegDirectory = metadata.getFirstDirectoryOfType(AdobeJpegDirectory.class);
-            if (adobeJpegDirectory != null) {
-                return adobeJpegDirectory.getDescription(AdobeJpegDirectory.TAG_COLOR_TRANSFORM);
-            }
-        } catch (ImageProcessingException | IOException ignored) {
-        }
-        return null;
+        ImageInfo info = probe(inputStream);
+        return info == null ? null : info.getColorTransform();
     }
 
     /** 是否是CMYK颜色空间的图片 */
     public static boolean isCmykColorSpace(File file) {
-        try (FileInputStream inputStream = new FileInputStream(file)) {
-            return "CMYK".equalsIgnoreCase(getColorSpace(inputStream));
-        } catch (IOException ignored) {
-        }
-        return false;
+        ImageInfo info = probe(file);
+        return info != null && info.isCmyk();
     }
 
     /** 是否是YCCK颜色空间的图片 */
     public static boolean isYcckColorTransform(File file) {
-        try (FileInputStream inputStream = new FileInputStream(file)) {
-            return "YCCK".equalsIgnoreCase(getColorTransform(inputStream));
-        } catch (IOException ignored) {
-        }
-        return false;
+        ImageInfo info = probe(file);
+        return info != null && info.isYcck();
     }
 
     /**
@@ -576,39 +944,68 @@ public class Images {
      * @param tarPath
      *            生成路径
      * @param alpha
-     *            透明度 （0不透明---10全透明）
+     *            透明度 （0全透明---10不透明）
      */
     public static void changeAlpha(String path, String tarPath, int alpha) {
-        // 检查透明度是否越界
-        if (alpha < 0) {
-            alpha = 0;
-        } else if (alpha > 10) {
-            alpha = 10;
-        }
-        try {
-            BufferedImage image = ImageIO.read(new File(path));
-            int weight = image.getWidth();
-            int height = image.getHeight();
-            BufferedImage output = new BufferedImage(weight, height, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g2 = output.createGraphics();
-            output = g2.getDeviceConfiguration().createCompatibleImage(weight, height, Transparency.TRANSLUCENT);
-            g2.dispose();
-            g2 = output.createGraphics();
-            // 调制透明度
-            for (int j1 = output.getMinY(); j1 < output.getHeight(); j1++) {
-                for (int j2 = output.getMinX(); j2 < output.getWidth(); j2++) {
-                    int rgb = output.getRGB(j2, j1);
-                    rgb = ((alpha * 255 / 10) << 24) | (rgb & 0x00ffffff);
-                    output.setRGB(j2, j1, rgb);
-                }
-            }
-            g2.setComposite(AlphaComposite.SrcIn);
-            g2.drawImage(image, 0, 0, weight, height, null);
-            g2.dispose();
-            ImageIO.write(output, "png", new File(tarPath));
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(path)); OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(tarPath))) {
+            changeAlpha(inputStream, outputStream, alpha);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * 调整图片透明度，结果以png格式写入输出流。流需由调用者关闭
+     *
+     * @param alpha
+     *            透明度 （0全透明---10不透明）
+     */
+    public static void changeAlpha(InputStream inputStream, OutputStream outputStream, int alpha) throws IOException {
+        BufferedImage image = ImageIO.read(inputStream);
+        if (image == null) {
+            throw new IIOException("Unable to read image");
+        }
+        ImageIO.write(changeAlpha(image, alpha), "png", outputStream);
+    }
+
+    /**
+     * 调整图片透明度：每个像素的alpha乘以alpha/10，颜色不变。源图片不会被修改<br>
+     * 直接操作像素数组，大图分条带并行处理
+     *
+     * @param alpha
+     *            透明度 （0全透明---10不透明）
+     * @return 新的TYPE_INT_ARGB图片
+     */
+    public static BufferedImage changeAlpha(BufferedImage image, int alpha) {
+        // 检查透明度是否越界
+        alpha = Math.max(0, Math.min(10, alpha));
+        int factor = alpha * 255 / 10;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = output.createGraphics();
+        g2.setComposite(AlphaComposite.Src);
+        g2.drawImage(image, 0, 0, null);
+        g2.dispose();
+        int[] pixels = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+        if (pixels.length < ALPHA_PARALLEL_THRESHOLD) {
+            scaleAlpha(pixels, 0, pixels.length, factor);
+        } else {
+            int stripes = (height + ALPHA_STRIPE_ROWS - 1) / ALPHA_STRIPE_ROWS;
+            IntStream.range(0, stripes).parallel().forEach(stripe -> {
+                int from = stripe * ALPHA_STRIPE_ROWS * width;
+                scaleAlpha(pixels, from, Math.min(pixels.length, from + ALPHA_STRIPE_ROWS * width), factor);
+            });
+        }
+        return output;
+    }
+
+    private static void scaleAlpha(int[] pixels, int from, int to, int factor) {
+        for (int i = from; i < to; i++) {
+            int argb = pixels[i];
+            int a = ((argb >>> 24) * factor + 127) / 255;
+            pixels[i] = (a << 24) | (argb & 0x00ffffff);
+        }
+    }
+
 }
@@ -3,23 +3,28 @@ package org.jujubeframework.util;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.EncodeHintType;
 import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
 import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitArray;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 import lombok.AccessLevel;
+import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.coobird.thumbnailator.Thumbnails;
 
 import javax.imageio.ImageIO;
-import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -31,20 +36,88 @@ import java.util.Map;
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class QrCodes {
 
+    /**
+     * 默认的纠错等级
+     */
+    public static final ErrorCorrectionLevel DEFAULT_ERROR_CORRECTION = ErrorCorrectionLevel.L;
+    /**
+     * BitMatrix缓存的最大数量
+     */
+    private static final int MATRIX_CACHE_SIZE = 256;
+    /**
+     * PNG缓存的最大数量
+     */
+    private static final int PNG_CACHE_SIZE = 64;
+    /**
+     * 缩放后的logo缓存的最大数量
+     */
+    private static final int LOGO_CACHE_SIZE = 16;
+    /**
+     * 编码后的BitMatrix缓存（LRU），key为内容、尺寸与纠错等级
+     */
+    private static final Map<MatrixKey, BitMatrix> MATRIX_CACHE = Collections.synchronizedMap(new LinkedHashMap<MatrixKey, BitMatrix>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<MatrixKey, BitMatrix> eldest) {
+            return size() > MATRIX_CACHE_SIZE;
+        }
+    });
+    /**
+     * 编码后的PNG缓存（LRU），用于频繁生成的二维码
+     */
+    private static final Map<MatrixKey, byte[]> PNG_CACHE = Collections.synchronizedMap(new LinkedHashMap<MatrixKey, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<MatrixKey, byte[]> eldest) {
+            return size() > PNG_CACHE_SIZE;
+        }
+    });
+    /**
+     * 缩放后的logo缓存（LRU），key为logo实例与目标尺寸
+     */
+    private static final Map<LogoKey, BufferedImage> LOGO_CACHE = Collections.synchronizedMap(new LinkedHashMap<LogoKey, BufferedImage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LogoKey, BufferedImage> eldest) {
+            return size() > LOGO_CACHE_SIZE;
+        }
+    });
+
     /**
      * 生成二维码
      */
     public static BufferedImage encode(String contents, int width, int height) {
-        Map<EncodeHintType, Object> hints = new Hashtable<>();
-        // 指定纠错等级
-        hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.L);
-        // 指定编码格式
-        hints.put(EncodeHintType.CHARACTER_SET, "GBK");
+        return encode(contents, width, height, DEFAULT_ERROR_CORRECTION);
+    }
+
+    /**
+     * 生成二维码
+     *
+     * @param errorCorrectionLevel
+     *            纠错等级
+     */
+    public static BufferedImage encode(String contents, int width, int height, ErrorCorrectionLevel errorCorrectionLevel) {
         try {
-            BitMatrix bitMatrix = new MultiFormatWriter().encode(contents, BarcodeFormat.QR_CODE, width, height, hints);
+            return MatrixToImageWriter.toBufferedImage(encodeMatrix(new MatrixKey(contents, width, height, errorCorrectionLevel)));
+        } catch (Exception e) {
+            log.error("encode", e);
+        }
+        return null;
+    }
 
-            return MatrixToImageWriter.toBufferedImage(bitMatrix);
+    /**
+     * 生成黑白两色（每像素1位）的二维码。像素按字节批量写入，比{@link #encode(String, int, int)}逐像素写入更快
+     */
+    public static BufferedImage encodeToBinaryImage(String contents, int width, int height) {
+        return encodeToBinaryImage(contents, width, height, DEFAULT_ERROR_CORRECTION);
+    }
 
+    /**
+     * 生成黑白两色（每像素1位）的二维码
+     *
+     * @param errorCorrectionLevel
+     *            纠错等级
+     */
+    public static BufferedImage encodeToBinaryImage(String contents, int width, int height, ErrorCorrectionLevel errorCorrectionLevel) {
+        try {
+            return toImage(encodeMatrix(new MatrixKey(contents, width, height, errorCorrectionLevel)));
         } catch (Exception e) {
             log.error("encode", e);
         }
@@ -52,26 +125,46 @@ public class QrCodes {
     }
 
     /**
-     * 生成二维码
+     * 生成JPG格式的二维码
      */
     public static InputStream encodeToInputStream(String contents, int width, int height) {
-        InputStream in = null;
-        ImageOutputStream outputStream;
         BufferedImage image = encode(contents, width, height);
+        if (image == null) {
+            return null;
+        }
         ByteArrayOutputStream bs = new ByteArrayOutputStream();
         try {
-            outputStream = ImageIO.createImageOutputStream(bs);
-            ImageIO.write(image, "jpg", outputStream);
-            in = new ByteArrayInputStream(bs.toByteArray());
+            ImageIO.write(image, "jpg", bs);
+            return new ByteArrayInputStream(bs.toByteArray());
         } catch (IOException e) {
             log.error("encode", e);
         }
-        return in;
+        return null;
+    }
+
+    /**
+     * 生成PNG格式的黑白二维码，结果按内容与尺寸缓存
+     */
+    public static byte[] encodeToPng(String contents, int width, int height) {
+        MatrixKey key = new MatrixKey(contents, width, height, DEFAULT_ERROR_CORRECTION);
+        byte[] png = PNG_CACHE.get(key);
+        if (png == null) {
+            try {
+                ByteArrayOutputStream bs = new ByteArrayOutputStream();
+                ImageIO.write(toImage(encodeMatrix(key)), "png", bs);
+                png = bs.toByteArray();
+                PNG_CACHE.put(key, png);
+            } catch (Exception e) {
+                log.error("encode", e);
+                return null;
+            }
+        }
+        return png.clone();
     }
 
     /**
      * 带有logo的二维码
-     * 
+     *
      * @param contents
      *            二维码内容
      * @param width
@@ -81,27 +174,110 @@ public class QrCodes {
      * @param logoImage
      *            logo图片
      * @param isCompressLogImage
-     *            是否压缩logo图片到合适的尺寸
+     *            是否压缩logo图片到合适的尺寸，压缩后的logo按实例与尺寸缓存
      */
     public static BufferedImage createQrCodeWithLogo(String contents, int width, int height, BufferedImage logoImage, boolean isCompressLogImage) {
         try {
             if (isCompressLogImage) {
-                int newWidth = (int) (width / 6.2);
-                int newHeight = (int) (height / 6.2);
-                logoImage = Thumbnails.of(logoImage).size(newWidth, newHeight).asBufferedImage();
+                logoImage = getScaledLogo(logoImage, (int) (width / 6.2), (int) (height / 6.2));
             }
-            BufferedImage qrcode = encode(contents, width, height);
+            BufferedImage qrcode = toImage(encodeMatrix(new MatrixKey(contents, width, height, DEFAULT_ERROR_CORRECTION)));
             int deltaHeight = height - logoImage.getHeight();
             int deltaWidth = width - logoImage.getWidth();
             BufferedImage combined = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g = (Graphics2D) combined.getGraphics();
+            Graphics2D g = combined.createGraphics();
             g.drawImage(qrcode, 0, 0, null);
             g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1f));
             g.drawImage(logoImage, (int) Math.round(deltaWidth / 2.0), (int) Math.round(deltaHeight / 2.0), null);
+            g.dispose();
             return combined;
         } catch (Exception e) {
             throw new RuntimeException(e.getMessage(), e);
         }
     }
 
+    /**
+     * 清空二维码与logo缓存
+     */
+    public static void clearCache() {
+        MATRIX_CACHE.clear();
+        PNG_CACHE.clear();
+        LOGO_CACHE.clear();
+    }
+
+    /**
+     * 编码二维码，结果按key缓存。返回的BitMatrix是共享的，不要修改
+     */
+    static BitMatrix encodeMatrix(MatrixKey key) throws WriterException {
+        BitMatrix bitMatrix = MATRIX_CACHE.get(key);
+        if (bitMatrix == null) {
+            Map<EncodeHintType, Object> hints = new Hashtable<>();
+            // 指定纠错等级
+            hints.put(EncodeHintType.ERROR_CORRECTION, key.getErrorCorrectionLevel());
+            // 指定编码格式
+            hints.put(EncodeHintType.CHARACTER_SET, "GBK");
+            bitMatrix = new MultiFormatWriter().encode(key.getContents(), BarcodeFormat.QR_CODE, key.getWidth(), key.getHeight(), hints);
+            MATRIX_CACHE.put(key, bitMatrix);
+        }
+        return bitMatrix;
+    }
+
+    /**
+     * 把BitMatrix直接写入每像素1位的图片：BitMatrix每行按32位整数保存（低位在前），图片每行按字节保存（高位在前，0为黑色），
+     * 每8个像素只需要一次移位和一次位反转，不需要逐像素setRGB
+     */
+    static BufferedImage toImage(BitMatrix bitMatrix) {
+        int width = bitMatrix.getWidth();
+        int height = bitMatrix.getHeight();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int stride = (width + 7) / 8;
+        BitArray row = new BitArray(width);
+        for (int y = 0; y < height; y++) {
+            int[] bits = bitMatrix.getRow(y, row).getBitArray();
+            int offset = y * stride;
+            for (int i = 0; i < stride; i++) {
+                int x = i * 8;
+                int b = (bits[x >>> 5] >>> (x & 31)) & 0xFF;
+                pixels[offset + i] = (byte) ~(Integer.reverse(b) >>> 24);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * 获得缩放后的logo。缓存以实例区分logo，返回的图片是共享的，不要修改
+     */
+    private static BufferedImage getScaledLogo(BufferedImage logoImage, int width, int height) throws IOException {
+        LogoKey key = new LogoKey(logoImage, width, height);
+        BufferedImage scaled = LOGO_CACHE.get(key);
+        if (scaled == null) {
+            scaled = Thumbnails.of(logoImage).size(width, height).asBufferedImage();
+            LOGO_CACHE.put(key, scaled);
+        }
+        return scaled;
+    }
+
+    /**
+     * 二维码缓存的key
+     */
+    @Data
+    static class MatrixKey {
+        private final String contents;
+        private final int width;
+        private final int height;
+        private final ErrorCorrectionLevel errorCorrectionLevel;
+    }
+
+    /**
+     * logo缓存的key
+     */
+    @Data
+    private static class LogoKey {
+        /** logo图片实例（按实例比较） */
+        private final BufferedImage logoImage;
+        private final int width;
+        private final int height;
+    }
+
 }
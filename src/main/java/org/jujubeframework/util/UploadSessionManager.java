@@ -0,0 +1,586 @@
+package org.jujubeframework.util;
+
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.Validate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 可续传、带校验的分片上传。只依赖本地文件系统：
+ * <ul>
+ * <li>每个上传是一个会话，会话清单保存在磁盘上，服务重启后也可以继续上传</li>
+ * <li>分片可以带CRC32C或MD5，校验不通过的分片不会被记为已收到</li>
+ * <li>客户端可以查询缺少哪些分片，只上传缺少的分片</li>
+ * <li>上传完成的文件按MD5保存，相同的文件不需要再上传（秒传）</li>
+ * <li>空闲的会话从内存中移除，释放打开的文件，见{@link #evictIdleSessions(long)}</li>
+ * </ul>
+ * 目录结构：
+ *
+ * <pre>
+ * rootDir/sessions/{sessionId}/session.json  会话清单
+ * rootDir/sessions/{sessionId}/data          组装中的文件，见{@link ChunkAssembler}
+ * rootDir/files/{md5}                        上传完成的文件
+ * </pre>
+ *
+ * @author John Li
+ */
+@Slf4j
+public class UploadSessionManager {
+
+    private static final String SESSION_MANIFEST_NAME = "session.json";
+    private static final String DATA_FILE_NAME = "data";
+    private static final Pattern SESSION_ID_PATTERN = Pattern.compile("[0-9a-zA-Z-]{1,64}");
+    private static final Pattern MD5_PATTERN = Pattern.compile("[0-9a-f]{32}");
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * 默认的会话空闲时间，超过该时间没有访问的会话从内存中移除
+     */
+    public static final long DEFAULT_SESSION_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final File sessionsDir;
+    private final File filesDir;
+    private final long sessionIdleTimeoutMillis;
+    /** 内存中的会话，没有的从磁盘加载 */
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * @param rootDir
+     *            会话与上传完成的文件保存的目录
+     */
+    public UploadSessionManager(File rootDir) {
+        this(rootDir, DEFAULT_SESSION_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param rootDir
+     *            会话与上传完成的文件保存的目录
+     * @param sessionIdleTimeoutMillis
+     *            会话空闲时间（毫秒），超过该时间没有访问的会话从内存中移除并关闭组装中的文件，磁盘上的进度保留，之后可以继续上传
+     */
+    public UploadSessionManager(File rootDir, long sessionIdleTimeoutMillis) {
+        Validate.isTrue(sessionIdleTimeoutMillis > 0, "sessionIdleTimeoutMillis must be positive");
+        this.sessionsDir = new File(rootDir, "sessions");
+        this.filesDir = new File(rootDir, "files");
+        this.sessionIdleTimeoutMillis = sessionIdleTimeoutMillis;
+        sessionsDir.mkdirs();
+        filesDir.mkdirs();
+    }
+
+    /**
+     * 开始或恢复上传。<br>
+     * fileMd5不为空时：相同的文件已经上传过则直接返回已完成的会话（会话同样可以查询）；否则会话id由MD5与大小决定，客户端重新开始上传时自动恢复之前的进度
+     *
+     * @param fileName
+     *            文件名，只记录在清单中
+     * @param fileSize
+     *            文件大小
+     * @param chunkSize
+     *            分片大小
+     * @param fileMd5
+     *            整个文件的MD5（十六进制），未知则为null
+     */
+    public UploadSession open(String fileName, long fileSize, long chunkSize, String fileMd5) throws IOException {
+        evictIdleSessions(sessionIdleTimeoutMillis);
+        String md5 = fileMd5 == null ? null : fileMd5.toLowerCase();
+        Validate.isTrue(md5 == null || MD5_PATTERN.matcher(md5).matches(), "invalid md5: %s", fileMd5);
+        if (md5 != null) {
+            File existing = findFile(md5, fileSize);
+            if (existing != null) {
+                return openExisting(md5 + "-" + fileSize, fileName, fileSize, chunkSize, existing);
+            }
+        }
+
+        String sessionId = md5 != null ? md5 + "-" + fileSize : UUID.randomUUID().toString().replace("-", "");
+        Session session = loadSession(sessionId);
+        if (session != null) {
+            synchronized (session) {
+                UploadSession manifest = session.manifest;
+                if (manifest.getStatus() == Status.UPLOADING && manifest.getChunkSize() == chunkSize) {
+                    return copy(manifest);
+                }
+            }
+            delete(sessionId);
+        }
+
+        UploadSession manifest = newManifest(sessionId, fileName, fileSize, chunkSize, md5);
+        new File(sessionsDir, sessionId).mkdirs();
+        session = new Session(manifest, new ChunkAssembler(getDataFile(sessionId), fileSize, chunkSize));
+        manifest.setChunkCount(session.assembler.getChunkCount());
+        synchronized (session) {
+            save(session);
+        }
+        sessions.put(sessionId, session);
+        return copy(manifest);
+    }
+
+    /**
+     * 文件已经上传过：注册一个已完成的会话，指向已有的文件
+     */
+    private UploadSession openExisting(String sessionId, String fileName, long fileSize, long chunkSize, File existing) throws IOException {
+        Session session = loadSession(sessionId);
+        if (session != null) {
+            synchronized (session) {
+                if (session.manifest.getStatus() == Status.COMPLETE) {
+                    return copy(session.manifest);
+                }
+            }
+            // 之前未完成的会话，文件已经由其他会话上传完成
+            delete(sessionId);
+        }
+        UploadSession manifest = newManifest(sessionId, fileName, fileSize, chunkSize, existing.getName());
+        manifest.setChunkCount(fileSize == 0 ? 1 : (int) ((fileSize + chunkSize - 1) / chunkSize));
+        manifest.setStatus(Status.COMPLETE);
+        manifest.setFilePath(existing.getAbsolutePath());
+        new File(sessionsDir, sessionId).mkdirs();
+        session = new Session(manifest, null);
+        synchronized (session) {
+            save(session);
+        }
+        sessions.put(sessionId, session);
+        return copy(manifest);
+    }
+
+    /**
+     * 查询会话
+     *
+     * @return 会话不存在时返回null
+     */
+    public UploadSession getSession(String sessionId) throws IOException {
+        Session session = loadSession(sessionId);
+        if (session == null) {
+            return null;
+        }
+        synchronized (session) {
+            return copy(session.manifest);
+        }
+    }
+
+    /**
+     * 还没有收到的分片，客户端只需要上传这些分片
+     */
+    public List<Integer> getMissingChunks(String sessionId) throws IOException {
+        Session session = requireSession(sessionId);
+        List<Integer> missing = new ArrayList<>();
+        synchronized (session) {
+            if (session.manifest.getStatus() == Status.COMPLETE) {
+                return missing;
+            }
+            BitSet received = toBitSet(session.manifest.getReceivedChunks());
+            for (int i = received.nextClearBit(0); i < session.manifest.getChunkCount(); i = received.nextClearBit(i + 1)) {
+                missing.add(i);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 上传分片
+     *
+     * @see #uploadChunk(String, int, InputStream, String, String)
+     */
+    public UploadSession uploadChunk(String sessionId, int chunkIndex, MultipartFile file, String crc32c, String md5) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return uploadChunk(sessionId, chunkIndex, in, crc32c, md5);
+        }
+    }
+
+    /**
+     * 上传分片，分片直接写入组装中的文件。最后一个分片到达时校验整个文件的MD5，并保存到按MD5命名的文件
+     *
+     * @param crc32c
+     *            分片的CRC32C（8位十六进制），为null则不校验
+     * @param md5
+     *            分片的MD5（十六进制），为null则不校验
+     * @return 上传后的会话状态
+     * @throws ChecksumMismatchException
+     *             分片或文件校验不通过，需要重新上传
+     */
+    public UploadSession uploadChunk(String sessionId, int chunkIndex, InputStream in, String crc32c, String md5) throws IOException {
+        evictIdleSessions(sessionIdleTimeoutMillis);
+        Session session;
+        ChunkAssembler assembler;
+        while (true) {
+            session = requireSession(sessionId);
+            synchronized (session) {
+                if (session.evicted) {
+                    // 刚刚被清理，重新从磁盘加载
+                    continue;
+                }
+                if (session.manifest.getStatus() == Status.COMPLETE) {
+                    return copy(session.manifest);
+                }
+                assembler = session.assembler;
+                // 写入中的会话不会被清理
+                session.writers++;
+                break;
+            }
+        }
+        try {
+            return uploadChunk(session, assembler, chunkIndex, in, crc32c, md5);
+        } finally {
+            synchronized (session) {
+                session.writers--;
+                session.lastAccessTime = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * 写入分片并更新会话清单
+     */
+    private UploadSession uploadChunk(Session session, ChunkAssembler assembler, int chunkIndex, InputStream in, String crc32c, String md5) throws IOException {
+        HashingInputStream crc32cStream = crc32c == null ? null : new HashingInputStream(Hashing.crc32c(), in);
+        InputStream data = crc32cStream == null ? in : crc32cStream;
+        DigestInputStream md5Stream = md5 == null ? null : new DigestInputStream(data, newMd5());
+        // 校验在分片的锁内、标记为已收到前进行；已经收到的分片不再写入，重试的数据不会覆盖已收到的数据
+        boolean complete = assembler.write(chunkIndex, Channels.newChannel(md5Stream == null ? data : md5Stream), () -> {
+            if (crc32cStream != null && !String.format("%08x", crc32cStream.hash().asInt()).equalsIgnoreCase(crc32c)) {
+                throw new ChecksumMismatchException("分片[" + chunkIndex + "]的CRC32C校验失败");
+            }
+            if (md5Stream != null && !Encodes.encodeHex(md5Stream.getMessageDigest().digest()).equalsIgnoreCase(md5)) {
+                throw new ChecksumMismatchException("分片[" + chunkIndex + "]的MD5校验失败");
+            }
+        });
+
+        synchronized (session) {
+            if (session.assembler != assembler || session.manifest.getStatus() == Status.COMPLETE) {
+                return copy(session.manifest);
+            }
+            session.manifest.setReceivedChunks(toList(assembler.getReceivedChunks()));
+            if (complete) {
+                complete(session);
+            }
+            save(session);
+            return copy(session.manifest);
+        }
+    }
+
+    /**
+     * 查找已经上传完成的文件
+     *
+     * @return 不存在时返回null
+     */
+    public File findFile(String md5, long fileSize) {
+        String key = md5.toLowerCase();
+        if (!MD5_PATTERN.matcher(key).matches()) {
+            return null;
+        }
+        File file = new File(filesDir, key);
+        return file.isFile() && file.length() == fileSize ? file : null;
+    }
+
+    /**
+     * 删除会话与组装中的文件，已经上传完成的文件不删除
+     */
+    public void delete(String sessionId) {
+        checkSessionId(sessionId);
+        Session session = sessions.remove(sessionId);
+        // 已完成的会话没有组装器
+        if (session != null && session.assembler != null) {
+            try {
+                session.assembler.close();
+            } catch (IOException e) {
+                log.error("关闭上传会话[{}]出错", sessionId);
+            }
+        }
+        FileUtils.deleteQuietly(new File(sessionsDir, sessionId));
+    }
+
+    /**
+     * 清理超过指定时间没有访问的会话：从内存中移除并关闭组装中的文件。磁盘上的清单与已收到的分片保留，再次访问时从磁盘加载，可以继续上传
+     *
+     * @param idleMillis
+     *            空闲时间（毫秒）
+     * @return 清理的会话数量
+     */
+    public int evictIdleSessions(long idleMillis) {
+        long deadline = System.currentTimeMillis() - idleMillis;
+        int evicted = 0;
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            Session session = entry.getValue();
+            synchronized (session) {
+                if (session.writers > 0 || session.lastAccessTime >= deadline || !sessions.remove(entry.getKey(), session)) {
+                    continue;
+                }
+                session.evicted = true;
+            }
+            if (session.assembler != null) {
+                try {
+                    session.assembler.close();
+                } catch (IOException e) {
+                    log.error("关闭上传会话[{}]出错", entry.getKey());
+                }
+            }
+            evicted++;
+        }
+        return evicted;
+    }
+
+    /**
+     * 所有分片都已收到：校验整个文件的MD5，保存到按MD5命名的文件。MD5与客户端提供的不一致时清空进度，需要重新上传
+     */
+    private void complete(Session session) throws IOException {
+        UploadSession manifest = session.manifest;
+        File dataFile = getDataFile(manifest.getSessionId());
+        String md5 = md5(dataFile);
+        if (manifest.getFileMd5() != null && !manifest.getFileMd5().equals(md5)) {
+            log.warn("上传会话[{}]的文件MD5不一致，期望{}，实际{}", manifest.getSessionId(), manifest.getFileMd5(), md5);
+            FileUtils.deleteQuietly(dataFile);
+            manifest.setReceivedChunks(new ArrayList<>());
+            session.assembler = new ChunkAssembler(dataFile, manifest.getFileSize(), manifest.getChunkSize());
+            save(session);
+            throw new ChecksumMismatchException("文件MD5校验失败，需要重新上传");
+        }
+        File target = new File(filesDir, md5);
+        if (target.isFile() && target.length() == dataFile.length()) {
+            // 同样的文件已经由其他会话上传完成
+            FileUtils.deleteQuietly(dataFile);
+        } else {
+            java.nio.file.Files.move(dataFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        manifest.setFileMd5(md5);
+        manifest.setStatus(Status.COMPLETE);
+        manifest.setFilePath(target.getAbsolutePath());
+    }
+
+    private Session requireSession(String sessionId) throws IOException {
+        Session session = loadSession(sessionId);
+        if (session == null) {
+            throw new IllegalArgumentException("上传会话[" + sessionId + "]不存在");
+        }
+        return session;
+    }
+
+    /**
+     * 从内存或磁盘加载会话
+     */
+    private Session loadSession(String sessionId) throws IOException {
+        checkSessionId(sessionId);
+        Session session;
+        try {
+            session = sessions.computeIfAbsent(sessionId, id -> {
+                File manifestFile = new File(new File(sessionsDir, id), SESSION_MANIFEST_NAME);
+                if (!manifestFile.isFile()) {
+                    return null;
+                }
+                try {
+                    UploadSession manifest = Jsons.parseJson(FileUtils.readFileToString(manifestFile, StandardCharsets.UTF_8), UploadSession.class);
+                    Session loaded = new Session(manifest, null);
+                    if (manifest.getStatus() == Status.UPLOADING) {
+                        recover(loaded);
+                    }
+                    return loaded;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (session != null) {
+            session.lastAccessTime = System.currentTimeMillis();
+        }
+        return session;
+    }
+
+    /**
+     * 恢复上传中的会话。清单在分片写入后才保存，所以磁盘上的文件可能比清单更新：
+     * <ul>
+     * <li>组装中的文件存在：按清单中已收到的分片继续上传</li>
+     * <li>只有组装完成的文件：所有分片都已收到，但在保存清单前中断，直接完成上传</li>
+     * <li>都不存在：文件已经移走但清单没有保存，已收到的分片无法恢复，清空进度重新上传</li>
+     * </ul>
+     */
+    private void recover(Session session) throws IOException {
+        UploadSession manifest = session.manifest;
+        File dataFile = getDataFile(manifest.getSessionId());
+        File partFile = new File(dataFile.getPath() + ChunkAssembler.PART_SUFFIX);
+        if (!partFile.isFile()) {
+            if (dataFile.isFile()) {
+                BitSet all = new BitSet();
+                all.set(0, manifest.getChunkCount());
+                manifest.setReceivedChunks(toList(all));
+                completeOnRecover(session);
+                return;
+            }
+            if (!manifest.getReceivedChunks().isEmpty()) {
+                log.warn("上传会话[{}]的文件不存在，需要重新上传", manifest.getSessionId());
+                manifest.setReceivedChunks(new ArrayList<>());
+                save(session);
+            }
+        }
+        session.assembler = new ChunkAssembler(dataFile, manifest.getFileSize(), manifest.getChunkSize(), toBitSet(manifest.getReceivedChunks()));
+        if (session.assembler.isComplete()) {
+            completeOnRecover(session);
+        }
+    }
+
+    private void completeOnRecover(Session session) throws IOException {
+        try {
+            complete(session);
+            save(session);
+        } catch (ChecksumMismatchException e) {
+            log.warn("上传会话[{}]恢复时校验失败，需要重新上传", session.manifest.getSessionId());
+        }
+    }
+
+    private File getDataFile(String sessionId) {
+        return new File(new File(sessionsDir, sessionId), DATA_FILE_NAME);
+    }
+
+    /**
+     * 保存会话清单：先写临时文件再改名，避免中断时清单损坏
+     */
+    private void save(Session session) throws IOException {
+        File dir = new File(sessionsDir, session.manifest.getSessionId());
+        File tmp = new File(dir, SESSION_MANIFEST_NAME + ".tmp");
+        FileUtils.writeStringToFile(tmp, Jsons.toJson(session.manifest), StandardCharsets.UTF_8);
+        java.nio.file.Files.move(tmp.toPath(), new File(dir, SESSION_MANIFEST_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void checkSessionId(String sessionId) {
+        Validate.isTrue(sessionId != null && SESSION_ID_PATTERN.matcher(sessionId).matches(), "invalid sessionId: %s", sessionId);
+    }
+
+    private static UploadSession newManifest(String sessionId, String fileName, long fileSize, long chunkSize, String fileMd5) {
+        UploadSession manifest = new UploadSession();
+        manifest.setSessionId(sessionId);
+        manifest.setFileName(fileName);
+        manifest.setFileSize(fileSize);
+        manifest.setChunkSize(chunkSize);
+        manifest.setFileMd5(fileMd5);
+        manifest.setStatus(Status.UPLOADING);
+        manifest.setReceivedChunks(new ArrayList<>());
+        return manifest;
+    }
+
+    private static UploadSession copy(UploadSession manifest) {
+        UploadSession copy = newManifest(manifest.getSessionId(), manifest.getFileName(), manifest.getFileSize(), manifest.getChunkSize(), manifest.getFileMd5());
+        copy.setChunkCount(manifest.getChunkCount());
+        copy.setStatus(manifest.getStatus());
+        copy.setReceivedChunks(new ArrayList<>(manifest.getReceivedChunks()));
+        copy.setFilePath(manifest.getFilePath());
+        return copy;
+    }
+
+    private static BitSet toBitSet(List<Integer> chunks) {
+        BitSet bitSet = new BitSet();
+        for (Integer chunk : chunks) {
+            bitSet.set(chunk);
+        }
+        return bitSet;
+    }
+
+    private static List<Integer> toList(BitSet bitSet) {
+        List<Integer> list = new ArrayList<>(bitSet.cardinality());
+        for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String md5(File file) throws IOException {
+        MessageDigest digest = newMd5();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                ((Buffer) buffer).flip();
+                digest.update(buffer);
+                ((Buffer) buffer).clear();
+            }
+        }
+        return Encodes.encodeHex(digest.digest());
+    }
+
+    /**
+     * 内存中的会话：清单与组装器，修改时同步
+     */
+    private static class Session {
+        private final UploadSession manifest;
+        private ChunkAssembler assembler;
+        /** 最后一次访问的时间，用于清理空闲的会话 */
+        private volatile long lastAccessTime = System.currentTimeMillis();
+        /** 正在写入分片的线程数 */
+        private int writers;
+        /** 已经从内存中移除，组装器已关闭 */
+        private boolean evicted;
+
+        private Session(UploadSession manifest, ChunkAssembler assembler) {
+            this.manifest = manifest;
+            this.assembler = assembler;
+        }
+    }
+
+    public enum Status {
+        /** 上传中 */
+        UPLOADING,
+        /** 已完成 */
+        COMPLETE
+    }
+
+    /**
+     * 上传会话清单
+     */
+    @Data
+    public static class UploadSession {
+        private String sessionId;
+        private String fileName;
+        private long fileSize;
+        private long chunkSize;
+        private int chunkCount;
+        /** 整个文件的MD5，客户端提供或者上传完成后计算 */
+        private String fileMd5;
+        private Status status;
+        /** 已收到的分片，从小到大 */
+        private List<Integer> receivedChunks;
+        /** 上传完成的文件 */
+        private String filePath;
+    }
+
+    /**
+     * 分片或文件校验不通过
+     */
+    public static class ChecksumMismatchException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ChecksumMismatchException(String message) {
+            super(message);
+        }
+    }
+}
@@ -1,18 +1,40 @@
 package org.jujubeframework.util;
 
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
 
 /**
  * WebUploader组件工具类
@@ -23,6 +45,38 @@ import java.util.List;
 @Slf4j
 public class WebUploaderUtil {
 
+    /**
+     * 正在组装的上传，key是上传id
+     */
+    private static final ConcurrentMap<String, ChunkAssembler> ASSEMBLERS = new ConcurrentHashMap<>();
+
+    /**
+     * 记住的已完成上传的最大数量
+     */
+    private static final int COMPLETED_CACHE_SIZE = 1024;
+
+    /**
+     * 已经组装完成的上传（LRU），key是上传id。完成后客户端重试的分片直接返回已完成的文件，不会重新开始组装
+     */
+    private static final Map<String, ChunkAssembler> COMPLETED = Collections.synchronizedMap(new LinkedHashMap<String, ChunkAssembler>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ChunkAssembler> eldest) {
+            return size() > COMPLETED_CACHE_SIZE;
+        }
+    });
+
+    /**
+     * 组装中的上传超过该时间没有写入分片，则认为已经放弃，关闭并删除临时文件
+     */
+    public static final long ASSEMBLER_IDLE_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    /**
+     * 分割文件时生成的清单文件名
+     */
+    public static final String SPLIT_MANIFEST_NAME = "manifest.json";
+
+    private static final int CHECKSUM_BUFFER_SIZE = 256 * 1024;
+
     /**
      * 合并分片文件
      * 
@@ -34,7 +88,12 @@ public class WebUploaderUtil {
     public static File mergeChunkFile(String chunkDirPath, String destFilePath) throws IOException {
         File destFile = Files.createFile(destFilePath);
         File chunkDir = new File(chunkDirPath);
-        List<File> chunkFileList = Arrays.asList(chunkDir.listFiles());
+        File[] chunkFiles = chunkDir.listFiles();
+        if (chunkFiles == null) {
+            throw new IOException("分片目录[" + chunkDir.getAbsolutePath() + "]不存在");
+        }
+        // 只合并以序号命名的分片，忽略清单等其他文件
+        List<File> chunkFileList = Arrays.stream(chunkFiles).filter(file -> NumberUtils.isDigits(file.getName())).collect(Collectors.toList());
         // 如果只有一个文件，则进行移动即可
         if (chunkFileList.size() == 1) {
             FileUtils.copyFile(chunkFileList.get(0), destFile);
@@ -43,15 +102,18 @@ public class WebUploaderUtil {
         if (chunkFileList.size() > 1) {
             chunkFileList.sort(Comparator.comparingLong(o -> NumberUtils.toLong(o.getName())));
 
-            // 合并
-            FileChannel outStreamChannel = new FileOutputStream(destFile).getChannel();
-            FileChannel inStreamChannel;
-            for (File file : chunkFileList) {
-                inStreamChannel = new FileInputStream(file).getChannel();
-                inStreamChannel.transferTo(0, inStreamChannel.size(), outStreamChannel);
-                inStreamChannel.close();
+            // 合并。transferTo一次不一定传输完整个分片，需要循环
+            try (FileChannel outStreamChannel = new FileOutputStream(destFile).getChannel()) {
+                for (File file : chunkFileList) {
+                    try (FileChannel inStreamChannel = new FileInputStream(file).getChannel()) {
+                        long size = inStreamChannel.size();
+                        long position = 0;
+                        while (position < size) {
+                            position += inStreamChannel.transferTo(position, size - position, outStreamChannel);
+                        }
+                    }
+                }
             }
-            outStreamChannel.close();
         }
 
         try {
@@ -80,37 +142,276 @@ public class WebUploaderUtil {
         file.transferTo(destFile);
     }
 
+    /**
+     * 获取上传的组装器，没有则新建。分片直接写入目标文件中的位置，不需要保存分片再合并，见{@link ChunkAssembler}。<br>
+     * 上传已经完成时返回已完成的组装器，写入分片直接返回true。超过{@link #ASSEMBLER_IDLE_TIMEOUT_MILLIS}没有写入的上传会被清理
+     *
+     * @param uploadId
+     *            上传id，同一个文件的所有分片相同
+     * @param destFilePath
+     *            组装后的文件路径
+     * @param fileSize
+     *            文件总大小
+     * @param chunkSize
+     *            分片大小
+     * @throws IllegalArgumentException
+     *             同一个上传id的目标文件、文件大小或分片大小与之前不一致
+     */
+    public static ChunkAssembler getAssembler(String uploadId, String destFilePath, long fileSize, long chunkSize) throws IOException {
+        evictIdleAssemblers(ASSEMBLER_IDLE_TIMEOUT_MILLIS);
+        ChunkAssembler assembler = COMPLETED.get(uploadId);
+        if (assembler == null) {
+            try {
+                assembler = ASSEMBLERS.computeIfAbsent(uploadId, id -> {
+                    try {
+                        return new ChunkAssembler(new File(destFilePath), fileSize, chunkSize);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        Validate.isTrue(assembler.getDestFile().equals(new File(destFilePath)) && assembler.getFileSize() == fileSize && assembler.getChunkSize() == chunkSize,
+                "upload %s already started with a different file, fileSize or chunkSize", uploadId);
+        return assembler;
+    }
+
+    /**
+     * 上传分片并直接写入目标文件，分片可以乱序、并发上传。最后一个分片到达时组装完成
+     *
+     * @param uploadId
+     *            上传id，同一个文件的所有分片相同
+     * @param chunkIndex
+     *            分片index
+     * @param file
+     *            此次的分片文件
+     * @param destFilePath
+     *            组装后的文件路径
+     * @param fileSize
+     *            文件总大小
+     * @param chunkSize
+     *            分片大小
+     * @return 组装完成的文件，还有分片没有收到则返回null
+     */
+    public static File uploadChunk(String uploadId, int chunkIndex, MultipartFile file, String destFilePath, long fileSize, long chunkSize) throws IOException {
+        ChunkAssembler assembler = getAssembler(uploadId, destFilePath, fileSize, chunkSize);
+        boolean complete;
+        try (InputStream in = file.getInputStream()) {
+            complete = assembler.write(chunkIndex, in);
+        }
+        if (complete) {
+            COMPLETED.put(uploadId, assembler);
+            ASSEMBLERS.remove(uploadId, assembler);
+            return assembler.getDestFile();
+        }
+        return null;
+    }
+
+    /**
+     * 取消上传，删除组装中的临时文件。已经完成的上传只忘记上传id，不删除文件
+     */
+    public static void cancelUpload(String uploadId) {
+        COMPLETED.remove(uploadId);
+        ChunkAssembler assembler = ASSEMBLERS.remove(uploadId);
+        if (assembler != null) {
+            discard(uploadId, assembler);
+        }
+    }
+
+    /**
+     * 清理超过指定时间没有写入分片的上传，关闭并删除临时文件；同时忘记超过该时间的已完成上传
+     *
+     * @param idleMillis
+     *            空闲时间（毫秒）
+     * @return 清理的上传数量
+     */
+    public static int evictIdleAssemblers(long idleMillis) {
+        long deadline = System.currentTimeMillis() - idleMillis;
+        int evicted = 0;
+        for (Map.Entry<String, ChunkAssembler> entry : ASSEMBLERS.entrySet()) {
+            ChunkAssembler assembler = entry.getValue();
+            if (assembler.getLastAccessTime() < deadline && ASSEMBLERS.remove(entry.getKey(), assembler)) {
+                log.info("清理空闲的上传[{}]", entry.getKey());
+                discard(entry.getKey(), assembler);
+                evicted++;
+            }
+        }
+        synchronized (COMPLETED) {
+            COMPLETED.values().removeIf(assembler -> assembler.getLastAccessTime() < deadline);
+        }
+        return evicted;
+    }
+
+    private static void discard(String uploadId, ChunkAssembler assembler) {
+        try {
+            assembler.close();
+        } catch (IOException e) {
+            log.error("关闭上传[{}]出错", uploadId);
+        }
+        FileUtils.deleteQuietly(new File(assembler.getDestFile().getPath() + ChunkAssembler.PART_SUFFIX));
+    }
+
     /**
      * 分割大文件
      */
     public static void splitFile(String sourcePath, int size, String destDirPath) throws Exception {
+        splitFile(sourcePath, size, destDirPath, 1);
+    }
+
+    /**
+     * 分割大文件：每个分片用transferTo直接拷贝源文件中对应的范围，各分片互不依赖，可以并行拷贝。<br>
+     * 分片文件名为分片序号，同时在目录中生成清单文件{@link #SPLIT_MANIFEST_NAME}，记录每个分片的范围与CRC32
+     *
+     * @param size
+     *            分片大小
+     * @param parallelism
+     *            并行拷贝的线程数，1则在当前线程中拷贝
+     * @return 清单
+     */
+    public static SplitManifest splitFile(String sourcePath, long size, String destDirPath, int parallelism) throws IOException {
+        Validate.isTrue(size > 0, "size must be positive");
+        Validate.isTrue(parallelism > 0, "parallelism must be positive");
         File sourceFile = new File(sourcePath);
-        long num = sourceFile.length() % size == 0 ? sourceFile.length() / size : sourceFile.length() / size + 1;
-        @SuppressWarnings("resource")
-        FileInputStream reader = new FileInputStream(sourceFile);
-        long beginIndex = 0, endIndex = 0;
-        int readcount;
-        // 可以设置文件在读取时一次读取文件的大小
-        int length = 1024;
-        byte[] buffer = new byte[length];
+        File destDir = Files.createDir(destDirPath);
+        long fileSize = sourceFile.length();
+        long num = fileSize % size == 0 ? fileSize / size : fileSize / size + 1;
+        List<SplitChunk> chunks = new ArrayList<>();
         for (int i = 0; i < num; i++) {
-            File destDir = Files.createDir(destDirPath);
-            File partFile = new File(destDir, "" + i);
-            FileOutputStream writer = new FileOutputStream(partFile);
-            endIndex = Math.min((endIndex + size), sourceFile.length());
-            while (beginIndex < endIndex) {
-                if (endIndex - beginIndex >= length) {
-                    readcount = reader.read(buffer);
-                    beginIndex += readcount;
-                    writer.write(buffer);
-                } else {
-                    // 下面的就不能直接读取1024个字节了,就要一个一个字节的读取了
-                    for (; beginIndex < endIndex; beginIndex++) {
-                        writer.write(reader.read());
+            SplitChunk chunk = new SplitChunk();
+            chunk.setIndex(i);
+            chunk.setOffset(i * size);
+            chunk.setLength(Math.min(size, fileSize - i * size));
+            chunks.add(chunk);
+        }
+
+        try (FileChannel source = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+            if (parallelism == 1 || chunks.size() <= 1) {
+                for (SplitChunk chunk : chunks) {
+                    copyRange(source, chunk, destDir);
+                }
+            } else {
+                ExecutorService executor = Concurrents.createThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS, chunks.size(), "split-file-");
+                try {
+                    List<Future<?>> futures = new ArrayList<>();
+                    for (SplitChunk chunk : chunks) {
+                        futures.add(executor.submit(() -> {
+                            copyRange(source, chunk, destDir);
+                            return null;
+                        }));
                     }
+                    for (Future<?> future : futures) {
+                        future.get();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("分割文件被中断");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+        }
+
+        SplitManifest manifest = new SplitManifest();
+        manifest.setFileName(sourceFile.getName());
+        manifest.setFileSize(fileSize);
+        manifest.setChunkSize(size);
+        manifest.setChunks(chunks);
+        FileUtils.writeStringToFile(new File(destDir, SPLIT_MANIFEST_NAME), Jsons.toPrettyJson(manifest), StandardCharsets.UTF_8);
+        return manifest;
+    }
+
+    /**
+     * 读取分割文件时生成的清单
+     *
+     * @param destDirPath
+     *            分片文件所在的目录
+     */
+    public static SplitManifest readSplitManifest(String destDirPath) throws IOException {
+        String json = FileUtils.readFileToString(new File(destDirPath, SPLIT_MANIFEST_NAME), StandardCharsets.UTF_8);
+        return Jsons.parseJson(json, SplitManifest.class);
+    }
+
+    /**
+     * 校验分片文件的长度与CRC32是否与清单一致
+     */
+    public static boolean verifyChunk(File chunkFile, SplitChunk chunk) throws IOException {
+        if (chunkFile.length() != chunk.getLength()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(chunkFile.toPath(), StandardOpenOption.READ)) {
+            return crc32(channel, 0, chunk.getLength()) == chunk.getCrc32();
+        }
+    }
+
+    /**
+     * 拷贝分片并计算CRC32。transferTo一次不一定传输完，需要循环
+     */
+    private static void copyRange(FileChannel source, SplitChunk chunk, File destDir) throws IOException {
+        File partFile = new File(destDir, String.valueOf(chunk.getIndex()));
+        try (FileChannel target = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long transferred = 0;
+            while (transferred < chunk.getLength()) {
+                long n = source.transferTo(chunk.getOffset() + transferred, chunk.getLength() - transferred, target);
+                if (n <= 0) {
+                    throw new EOFException("源文件在分割过程中被修改");
                 }
+                transferred += n;
+            }
+        }
+        // 刚拷贝过的范围在页缓存中，再读一遍计算CRC32的代价很小
+        chunk.setCrc32(crc32(source, chunk.getOffset(), chunk.getLength()));
+    }
+
+    private static long crc32(FileChannel channel, long position, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(Math.max(length, 1), CHECKSUM_BUFFER_SIZE));
+        long remaining = length;
+        while (remaining > 0) {
+            ((Buffer) buffer).clear();
+            if (remaining < buffer.capacity()) {
+                ((Buffer) buffer).limit((int) remaining);
             }
-            writer.close();
+            int n = channel.read(buffer, position + length - remaining);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            ((Buffer) buffer).flip();
+            crc.update(buffer);
+            remaining -= n;
         }
+        return crc.getValue();
+    }
+
+    /**
+     * 分割文件的清单
+     */
+    @Data
+    public static class SplitManifest {
+        /** 源文件名 */
+        private String fileName;
+        /** 源文件大小 */
+        private long fileSize;
+        /** 分片大小 */
+        private long chunkSize;
+        private List<SplitChunk> chunks;
+    }
+
+    /**
+     * 分片在源文件中的范围与CRC32
+     */
+    @Data
+    public static class SplitChunk {
+        private int index;
+        private long offset;
+        private long length;
+        private long crc32;
     }
 }
@@ -0,0 +1,213 @@
+package org.jujubeframework.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+import static org.jujubeframework.util.ZipRawWriter.*;
+
+/**
+ * 读取zip的中央目录，得到每个entry的原始信息与本地头的位置，用于不解压直接拷贝entry或随机读取entry。支持zip64
+ *
+ * @author John Li
+ */
+final class ZipCentralDirectory {
+
+    private static final int END_LENGTH = 22;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int LOCAL_HEADER_LENGTH = 30;
+
+    private ZipCentralDirectory() {
+    }
+
+    /**
+     * 读取中央目录
+     *
+     * @param charset
+     *            文件名没有UTF-8标志时使用的编码
+     * @return entry按中央目录中的顺序排列
+     */
+    static List<ZipRawEntry> read(FileChannel channel, Charset charset) throws IOException {
+        long fileSize = channel.size();
+        int tailLength = (int) Math.min(fileSize, END_LENGTH + 0xFFFF);
+        ByteBuffer tail = read(channel, fileSize - tailLength, tailLength);
+        int endPos = -1;
+        for (int i = tailLength - END_LENGTH; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIG && i + END_LENGTH + (tail.getShort(i + 20) & 0xFFFF) == tailLength) {
+                endPos = i;
+                break;
+            }
+        }
+        if (endPos < 0) {
+            throw new ZipException("zip END header not found");
+        }
+        long count = tail.getShort(endPos + 10) & 0xFFFF;
+        long centralSize = tail.getInt(endPos + 12) & ZIP64_MAGIC;
+        long centralOffset = tail.getInt(endPos + 16) & ZIP64_MAGIC;
+        long endOffset = fileSize - tailLength + endPos;
+        if ((count == ZIP64_MAGIC_COUNT || centralSize == ZIP64_MAGIC || centralOffset == ZIP64_MAGIC) && endOffset >= ZIP64_LOCATOR_LENGTH) {
+            ByteBuffer locator = read(channel, endOffset - ZIP64_LOCATOR_LENGTH, ZIP64_LOCATOR_LENGTH);
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIG) {
+                ByteBuffer zip64End = read(channel, locator.getLong(8), 56);
+                if (zip64End.getInt(0) != ZIP64_END_SIG) {
+                    throw new ZipException("invalid zip64 END header");
+                }
+                count = zip64End.getLong(32);
+                centralSize = zip64End.getLong(40);
+                centralOffset = zip64End.getLong(48);
+            }
+        }
+        if (centralSize > Integer.MAX_VALUE || centralOffset + centralSize > fileSize) {
+            throw new ZipException("invalid zip central directory");
+        }
+
+        ByteBuffer central = read(channel, centralOffset, (int) centralSize);
+        List<ZipRawEntry> entries = new ArrayList<>((int) Math.min(count, Integer.MAX_VALUE));
+        int pos = 0;
+        for (long i = 0; i < count; i++) {
+            if (pos + CENTRAL_HEADER_LENGTH > centralSize || central.getInt(pos) != CENTRAL_HEADER_SIG) {
+                throw new ZipException("invalid zip central directory header");
+            }
+            ZipRawEntry entry = new ZipRawEntry();
+            entry.versionMadeBy = central.getShort(pos + 4) & 0xFFFF;
+            entry.versionNeeded = central.getShort(pos + 6) & 0xFFFF;
+            entry.flags = central.getShort(pos + 8) & 0xFFFF;
+            entry.method = central.getShort(pos + 10) & 0xFFFF;
+            entry.dosTime = central.getInt(pos + 12) & ZIP64_MAGIC;
+            entry.crc = central.getInt(pos + 16) & ZIP64_MAGIC;
+            entry.compressedSize = central.getInt(pos + 20) & ZIP64_MAGIC;
+            entry.size = central.getInt(pos + 24) & ZIP64_MAGIC;
+            int nameLength = central.getShort(pos + 28) & 0xFFFF;
+            int extraLength = central.getShort(pos + 30) & 0xFFFF;
+            int commentLength = central.getShort(pos + 32) & 0xFFFF;
+            entry.internalAttributes = central.getShort(pos + 36) & 0xFFFF;
+            entry.externalAttributes = central.getInt(pos + 38) & ZIP64_MAGIC;
+            entry.localHeaderOffset = central.getInt(pos + 42) & ZIP64_MAGIC;
+            int namePos = pos + CENTRAL_HEADER_LENGTH;
+            entry.nameBytes = bytes(central, namePos, nameLength);
+            entry.name = new String(entry.nameBytes, (entry.flags & ZipRawEntry.UTF8_FLAG) != 0 ? StandardCharsets.UTF_8 : charset);
+            entry.extra = readExtra(entry, bytes(central, namePos + nameLength, extraLength));
+            entry.comment = bytes(central, namePos + nameLength + extraLength, commentLength);
+            entries.add(entry);
+            pos = namePos + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * 解析扩展字段中的zip64信息，返回去掉zip64字段之后的扩展字段
+     */
+    private static byte[] readExtra(ZipRawEntry entry, byte[] extra) {
+        ByteBuffer buffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        int pos = 0;
+        while (pos + 4 <= extra.length) {
+            int id = buffer.getShort(pos) & 0xFFFF;
+            int length = buffer.getShort(pos + 2) & 0xFFFF;
+            if (pos + 4 + length > extra.length) {
+                break;
+            }
+            if (id == ZIP64_EXTRA_ID) {
+                int valuePos = pos + 4;
+                int valueEnd = valuePos + length;
+                if (entry.size == ZIP64_MAGIC && valuePos + 8 <= valueEnd) {
+                    entry.size = buffer.getLong(valuePos);
+                    valuePos += 8;
+                }
+                if (entry.compressedSize == ZIP64_MAGIC && valuePos + 8 <= valueEnd) {
+                    entry.compressedSize = buffer.getLong(valuePos);
+                    valuePos += 8;
+                }
+                if (entry.localHeaderOffset == ZIP64_MAGIC && valuePos + 8 <= valueEnd) {
+                    entry.localHeaderOffset = buffer.getLong(valuePos);
+                }
+                byte[] rest = new byte[extra.length - 4 - length];
+                System.arraycopy(extra, 0, rest, 0, pos);
+                System.arraycopy(extra, pos + 4 + length, rest, pos, extra.length - pos - 4 - length);
+                return rest;
+            }
+            pos += 4 + length;
+        }
+        return extra;
+    }
+
+    /**
+     * entry压缩数据的起始位置，即本地头之后
+     */
+    static long dataOffset(FileChannel channel, ZipRawEntry entry) throws IOException {
+        ByteBuffer header = read(channel, entry.localHeaderOffset, LOCAL_HEADER_LENGTH);
+        if (header.getInt(0) != LOCAL_HEADER_SIG) {
+            throw new ZipException("invalid zip local header: " + entry.name);
+        }
+        return entry.localHeaderOffset + LOCAL_HEADER_LENGTH + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+    }
+
+    /**
+     * entry在zip中占用的总长度：本地头、压缩数据与数据描述符
+     */
+    static long entryLength(FileChannel channel, ZipRawEntry entry) throws IOException {
+        ByteBuffer header = read(channel, entry.localHeaderOffset, LOCAL_HEADER_LENGTH);
+        if (header.getInt(0) != LOCAL_HEADER_SIG) {
+            throw new ZipException("invalid zip local header: " + entry.name);
+        }
+        int nameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        long dataEnd = entry.localHeaderOffset + LOCAL_HEADER_LENGTH + nameLength + extraLength + entry.compressedSize;
+        if ((entry.flags & DATA_DESCRIPTOR_FLAG) == 0) {
+            return dataEnd - entry.localHeaderOffset;
+        }
+        // 数据描述符的签名是可选的；本地头带有zip64扩展字段时大小字段为8字节。
+        // 流式写入时本地头不带zip64字段（JDK与ZipRawWriter），此时只有大小超过4G才会写8字节
+        boolean zip64 = hasZip64Extra(read(channel, entry.localHeaderOffset + LOCAL_HEADER_LENGTH + nameLength, extraLength))
+                || entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+        int descriptorLength = 4 + (zip64 ? 16 : 8);
+        if (dataEnd + 4 <= channel.size() && read(channel, dataEnd, 4).getInt(0) == DATA_DESCRIPTOR_SIG) {
+            descriptorLength += 4;
+        }
+        return dataEnd + descriptorLength - entry.localHeaderOffset;
+    }
+
+    /**
+     * 扩展字段中是否有zip64字段
+     */
+    private static boolean hasZip64Extra(ByteBuffer extra) {
+        int pos = 0;
+        while (pos + 4 <= extra.limit()) {
+            if ((extra.getShort(pos) & 0xFFFF) == ZIP64_EXTRA_ID) {
+                return true;
+            }
+            pos += 4 + (extra.getShort(pos + 2) & 0xFFFF);
+        }
+        return false;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int pos, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer duplicate = buffer.duplicate();
+        ((Buffer) duplicate).position(pos);
+        duplicate.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 从指定位置读取定长数据，不改变通道的位置
+     */
+    static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("unexpected end of zip");
+            }
+        }
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,135 @@
+package org.jujubeframework.util;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.Validate;
+
+import java.util.*;
+import java.util.zip.Deflater;
+
+/**
+ * zip压缩策略：按entry的扩展名或者开头一段数据的熵判断内容是否已经压缩过（图片、视频、压缩包等），已经压缩过的不再压缩（STORED），其他的按配置的级别压缩。<br>
+ * 已压缩的内容再压缩几乎不会变小，跳过可以节省大量CPU
+ *
+ * @author John Li
+ */
+public class ZipCompressionPolicy {
+
+    /**
+     * 默认不压缩的扩展名
+     */
+    public static final Set<String> DEFAULT_STORED_EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("jpg", "jpeg", "png", "gif", "webp",
+            "heic", "mp3", "aac", "m4a", "ogg", "flac", "mp4", "m4v", "mov", "avi", "mkv", "webm", "flv", "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "jar",
+            "war", "apk", "docx", "xlsx", "pptx", "woff", "woff2")));
+
+    /**
+     * 默认的采样大小
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 4 * 1024;
+
+    /**
+     * 默认的熵阈值（比特/字节），不低于该值认为已经压缩过
+     */
+    public static final double DEFAULT_ENTROPY_THRESHOLD = 7.5;
+
+    /**
+     * 采样少于该字节数时熵不准确，不按熵判断
+     */
+    private static final int MIN_ENTROPY_SAMPLE = 512;
+
+    private final int compressionLevel;
+    private final Set<String> storedExtensions;
+    private final int sampleSize;
+    private final double entropyThreshold;
+
+    /**
+     * 使用默认的扩展名与熵阈值
+     *
+     * @param compressionLevel
+     *            需要压缩的entry的压缩级别
+     */
+    public ZipCompressionPolicy(int compressionLevel) {
+        this(compressionLevel, DEFAULT_STORED_EXTENSIONS, DEFAULT_SAMPLE_SIZE, DEFAULT_ENTROPY_THRESHOLD);
+    }
+
+    /**
+     * @param compressionLevel
+     *            需要压缩的entry的压缩级别
+     * @param storedExtensions
+     *            不压缩的扩展名，不区分大小写
+     * @param sampleSize
+     *            采样的字节数，为0则不按熵判断
+     * @param entropyThreshold
+     *            熵阈值（比特/字节），不低于该值则不压缩
+     */
+    public ZipCompressionPolicy(int compressionLevel, Collection<String> storedExtensions, int sampleSize, double entropyThreshold) {
+        Validate.isTrue(sampleSize >= 0, "sampleSize must not be negative");
+        this.compressionLevel = compressionLevel;
+        this.storedExtensions = new HashSet<>();
+        for (String extension : storedExtensions) {
+            this.storedExtensions.add(extension.toLowerCase());
+        }
+        this.sampleSize = sampleSize;
+        this.entropyThreshold = entropyThreshold;
+    }
+
+    /**
+     * 固定的压缩级别，不判断内容。级别为{@link Deflater#NO_COMPRESSION}时所有entry都不压缩
+     */
+    public static ZipCompressionPolicy fixed(int compressionLevel) {
+        return new ZipCompressionPolicy(compressionLevel, Collections.emptySet(), 0, DEFAULT_ENTROPY_THRESHOLD);
+    }
+
+    /**
+     * 判断entry的压缩级别
+     *
+     * @param name
+     *            entry名称
+     * @param sample
+     *            entry开头的数据，最多{@link #getSampleSize()}个字节
+     * @param length
+     *            sample中的有效字节数
+     * @return 压缩级别，{@link Deflater#NO_COMPRESSION}表示不压缩（STORED）
+     */
+    public int getCompressionLevel(String name, byte[] sample, int length) {
+        if (compressionLevel == Deflater.NO_COMPRESSION || isStoredExtension(name)) {
+            return Deflater.NO_COMPRESSION;
+        }
+        if (sampleSize > 0 && length >= MIN_ENTROPY_SAMPLE && entropy(sample, length) >= entropyThreshold) {
+            return Deflater.NO_COMPRESSION;
+        }
+        return compressionLevel;
+    }
+
+    /**
+     * 按扩展名判断是否不压缩
+     */
+    public boolean isStoredExtension(String name) {
+        return !storedExtensions.isEmpty() && storedExtensions.contains(FilenameUtils.getExtension(name).toLowerCase());
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * 香农熵（比特/字节）
+     */
+    static double entropy(byte[] data, int length) {
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[data[i] & 0xFF]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+}
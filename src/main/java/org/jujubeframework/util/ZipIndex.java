@@ -0,0 +1,426 @@
+package org.jujubeframework.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * zip的索引句柄：只解析一次中央目录，建立entry名称到本地头位置的哈希表，之后的查找与读取都不再解析中央目录。<br>
+ * 读取使用文件通道的定位读，不改变通道的位置，所以一个句柄可以在多个线程中同时使用。<br>
+ * {@link #cached(File, Charset)}返回缓存中的句柄，按文件路径缓存，文件的修改时间或大小变化后自动重新解析
+ *
+ * @author John Li
+ */
+public final class ZipIndex implements Closeable {
+
+    /**
+     * 缓存的句柄数量上限
+     */
+    private static final int CACHE_SIZE = 16;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int ENCRYPTED_FLAG = 0x01;
+
+    /**
+     * 句柄缓存，按访问顺序淘汰。key是文件路径与编码
+     */
+    private static final Map<String, ZipIndex> CACHE = Collections.synchronizedMap(new LinkedHashMap<String, ZipIndex>(CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ZipIndex> eldest) {
+            if (size() > CACHE_SIZE) {
+                eldest.getValue().closeQuietly();
+                return true;
+            }
+            return false;
+        }
+    });
+
+    private final File file;
+    private final long lastModified;
+    private final long length;
+    private final FileChannel channel;
+    /** 按中央目录中的顺序排列 */
+    private final ZipRawEntry[] entries;
+    /** 开放寻址的哈希表，值为entries的下标+1，0表示空位 */
+    private final int[] table;
+    /** 引用计数，为0时关闭通道 */
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    private ZipIndex(File file, Charset charset) throws IOException {
+        this.file = file;
+        this.lastModified = file.lastModified();
+        this.length = file.length();
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            List<ZipRawEntry> list = ZipCentralDirectory.read(channel, charset);
+            this.entries = list.toArray(new ZipRawEntry[0]);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        int capacity = 2;
+        while (capacity < entries.length * 2) {
+            capacity <<= 1;
+        }
+        this.table = new int[capacity];
+        for (int i = 0; i < entries.length; i++) {
+            // 同名entry以最后一个为准，与ZipFile一致
+            table[slot(entries[i].name)] = i + 1;
+        }
+    }
+
+    /**
+     * 打开zip并解析中央目录，不使用缓存。使用完需要关闭
+     *
+     * @param charset
+     *            文件名没有UTF-8标志时使用的编码
+     */
+    public static ZipIndex open(File zip, Charset charset) throws IOException {
+        return new ZipIndex(zip, charset);
+    }
+
+    /**
+     * 从缓存中获取句柄，没有或者文件已经修改过则重新解析。<br>
+     * 使用完同样需要关闭：关闭只是释放引用，句柄被淘汰并且所有引用都释放之后才真正关闭文件
+     *
+     * @param charset
+     *            文件名没有UTF-8标志时使用的编码
+     */
+    public static ZipIndex cached(File zip, Charset charset) throws IOException {
+        String key = zip.getAbsolutePath() + '|' + charset.name();
+        synchronized (CACHE) {
+            ZipIndex index = CACHE.get(key);
+            if (index != null && index.lastModified == zip.lastModified() && index.length == zip.length() && index.retain()) {
+                return index;
+            }
+        }
+        ZipIndex index = new ZipIndex(zip, charset);
+        index.retain();
+        ZipIndex previous;
+        synchronized (CACHE) {
+            previous = CACHE.put(key, index);
+        }
+        if (previous != null && previous != index) {
+            previous.closeQuietly();
+        }
+        return index;
+    }
+
+    /**
+     * 从缓存中移除文件的句柄。修改或删除zip之前调用，避免缓存一直占用已经过期的文件
+     */
+    public static void evict(File zip) {
+        String prefix = zip.getAbsolutePath() + '|';
+        List<ZipIndex> removed = new ArrayList<>();
+        synchronized (CACHE) {
+            Iterator<Map.Entry<String, ZipIndex>> iterator = CACHE.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, ZipIndex> entry = iterator.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    removed.add(entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+        removed.forEach(ZipIndex::closeQuietly);
+    }
+
+    /**
+     * 清空句柄缓存
+     */
+    public static void clearCache() {
+        List<ZipIndex> removed;
+        synchronized (CACHE) {
+            removed = new ArrayList<>(CACHE.values());
+            CACHE.clear();
+        }
+        removed.forEach(ZipIndex::closeQuietly);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * entry的数量，包括同名的entry
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * 所有entry的名称，按zip中的顺序排列
+     */
+    public List<String> getEntryNames() {
+        List<String> names = new ArrayList<>(entries.length);
+        for (ZipRawEntry entry : entries) {
+            names.add(entry.name);
+        }
+        return names;
+    }
+
+    /**
+     * 是否包含entry。与{@link java.util.zip.ZipFile#getEntry(String)}一样，找不到时会再查找名称加上/的目录
+     */
+    public boolean containsEntry(String name) {
+        return findEntry(name) != null;
+    }
+
+    /**
+     * 是否包含其中任意一个entry
+     */
+    public boolean containsAnyEntry(String[] names) {
+        for (String name : names) {
+            if (containsEntry(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 读取entry的内容
+     *
+     * @return entry不存在时返回null
+     */
+    public InputStream getInputStream(String name) throws IOException {
+        ZipRawEntry entry = findEntry(name);
+        return entry == null ? null : getInputStream(entry);
+    }
+
+    /**
+     * 读取entry的全部内容
+     *
+     * @return entry不存在时返回null
+     */
+    public byte[] unpackEntry(String name) throws IOException {
+        ZipRawEntry entry = findEntry(name);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.size > Integer.MAX_VALUE - 8) {
+            throw new ZipException("entry too large: " + name);
+        }
+        byte[] bytes = new byte[(int) entry.size];
+        try (InputStream in = getInputStream(entry)) {
+            int off = 0;
+            while (off < bytes.length) {
+                int n = in.read(bytes, off, bytes.length - off);
+                if (n < 0) {
+                    throw new EOFException("unexpected end of entry: " + name);
+                }
+                off += n;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 解压entry到文件
+     *
+     * @return entry不存在时返回false
+     */
+    public boolean unpackEntry(String name, File file) throws IOException {
+        ZipRawEntry entry = findEntry(name);
+        if (entry == null) {
+            return false;
+        }
+        try (InputStream in = getInputStream(entry); OutputStream out = new FileOutputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 查找entry，找不到时再查找名称加上/的目录
+     */
+    ZipRawEntry findEntry(String name) {
+        ZipRawEntry entry = find(name);
+        if (entry == null && !name.endsWith("/")) {
+            entry = find(name + "/");
+        }
+        return entry;
+    }
+
+    private ZipRawEntry find(String name) {
+        int mask = table.length - 1;
+        int slot = spread(name.hashCode()) & mask;
+        int index;
+        while ((index = table[slot]) != 0) {
+            ZipRawEntry entry = entries[index - 1];
+            if (entry.name.equals(name)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * name所在的位置，不存在则是第一个空位
+     */
+    private int slot(String name) {
+        int mask = table.length - 1;
+        int slot = spread(name.hashCode()) & mask;
+        while (table[slot] != 0 && !entries[table[slot] - 1].name.equals(name)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 读取entry的内容，支持STORED与DEFLATED
+     */
+    InputStream getInputStream(ZipRawEntry entry) throws IOException {
+        if ((entry.flags & ENCRYPTED_FLAG) != 0) {
+            throw new ZipException("encrypted entry: " + entry.name);
+        }
+        InputStream in = new EntryInputStream(ZipCentralDirectory.dataOffset(channel, entry), entry.compressedSize);
+        switch (entry.method) {
+            case ZipEntry.STORED:
+                return in;
+            case ZipEntry.DEFLATED:
+                return new EntryInflaterInputStream(in, new Inflater(true), (int) Math.min(Math.max(entry.compressedSize, 64), BUFFER_SIZE));
+            default:
+                throw new ZipException("unsupported compression method " + entry.method + ": " + entry.name);
+        }
+    }
+
+    private boolean retain() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放引用，所有引用都释放之后关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        if (refCount.decrementAndGet() == 0) {
+            channel.close();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ZipIndex[" + file + "]";
+    }
+
+    /**
+     * 按位置读取entry压缩后的数据
+     */
+    private class EntryInputStream extends InputStream {
+        private long position;
+        private long remaining;
+
+        EntryInputStream(long position, long length) {
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (n < 0) {
+                throw new EOFException("unexpected end of zip: " + file);
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, remaining));
+            position += skipped;
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * 解压entry，关闭时释放Inflater
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof;
+        private boolean closed;
+
+        EntryInflaterInputStream(InputStream in, Inflater inflater, int size) {
+            super(in, inflater, size);
+        }
+
+        /**
+         * nowrap模式的Inflater在数据结束后需要一个额外的字节
+         */
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                super.close();
+                inf.end();
+            }
+        }
+    }
+}
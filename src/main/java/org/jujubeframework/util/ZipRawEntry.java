@@ -0,0 +1,84 @@
+package org.jujubeframework.util;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.zip.ZipEntry;
+
+/**
+ * zip中央目录中的一条记录，由{@link ZipRawWriter}写入。字段与zip格式一一对应，大小与偏移量已经是zip64展开后的值
+ *
+ * @author John Li
+ */
+final class ZipRawEntry {
+
+    /** 文件名是UTF-8编码 */
+    static final int UTF8_FLAG = 0x800;
+    /** 1980-01-01 00:00:00 */
+    private static final long DOS_TIME_MIN = (1 << 21) | (1 << 16);
+
+    String name;
+    byte[] nameBytes;
+    int versionMadeBy = 20;
+    int versionNeeded;
+    int flags;
+    int method;
+    long dosTime;
+    long crc;
+    long compressedSize;
+    long size;
+    long localHeaderOffset;
+    /** 中央目录中的扩展字段，不含zip64扩展字段 */
+    byte[] extra = new byte[0];
+    byte[] comment = new byte[0];
+    int internalAttributes;
+    long externalAttributes;
+
+    /**
+     * 新建一条记录
+     *
+     * @param name
+     *            entry名称，目录以/结尾
+     * @param time
+     *            修改时间（毫秒）
+     * @param method
+     *            {@link ZipEntry#STORED}或{@link ZipEntry#DEFLATED}
+     */
+    static ZipRawEntry of(String name, Charset charset, long time, int method, long crc, long compressedSize, long size) {
+        ZipRawEntry entry = new ZipRawEntry();
+        entry.name = name;
+        entry.nameBytes = name.getBytes(charset);
+        entry.flags = StandardCharsets.UTF_8.equals(charset) ? UTF8_FLAG : 0;
+        entry.method = method;
+        entry.versionNeeded = method == ZipEntry.DEFLATED ? 20 : 10;
+        entry.dosTime = toDosTime(time);
+        entry.crc = crc;
+        entry.compressedSize = compressedSize;
+        entry.size = size;
+        return entry;
+    }
+
+    boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    /**
+     * java时间转换为MS-DOS时间
+     */
+    static long toDosTime(long time) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        int year = dateTime.getYear();
+        if (year < 1980) {
+            return DOS_TIME_MIN;
+        }
+        return ((long) (year - 1980) << 25) | (dateTime.getMonthValue() << 21) | (dateTime.getDayOfMonth() << 16) | (dateTime.getHour() << 11)
+                | (dateTime.getMinute() << 5) | (dateTime.getSecond() >> 1);
+    }
+
+    @Override
+    public String toString() {
+        return "ZipRawEntry[" + name + "]";
+    }
+}
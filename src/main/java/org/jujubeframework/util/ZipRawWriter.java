@@ -0,0 +1,423 @@
+package org.jujubeframework.util;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * zip的底层写入：写入已经压缩好的entry数据，或者原样拷贝其他zip中的entry，结束时写入中央目录。<br>
+ * 与{@link java.util.zip.ZipOutputStream}不同，压缩一般由调用方完成，所以可以在多个线程中并行压缩后按顺序写入；也可以通过{@link #openEntry(ZipRawEntry, int)}边压缩边写入，
+ * 此时crc与大小写在数据之后的数据描述符中。entry大小与偏移量超过4G或者entry数量超过65535时自动使用zip64格式
+ *
+ * @author John Li
+ */
+final class ZipRawWriter implements Closeable {
+
+    static final int LOCAL_HEADER_SIG = 0x04034b50;
+    static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    static final int END_SIG = 0x06054b50;
+    static final int ZIP64_END_SIG = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    static final int ZIP64_EXTRA_ID = 0x0001;
+    static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+    static final int DATA_DESCRIPTOR_FLAG = 0x08;
+    private static final int ZIP64_VERSION = 45;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    /** 写入目标是文件时不为空，此时拷贝数据使用transferTo */
+    private final FileChannel channel;
+    private final List<ZipRawEntry> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final byte[] scratch = new byte[8];
+    private long position;
+    private boolean finished;
+    /** 正在写入的entry，写完之前不能写入其他entry */
+    private EntryOutputStream current;
+
+    /**
+     * 写入输出流，输出流在{@link #close()}时关闭
+     */
+    ZipRawWriter(OutputStream out) {
+        this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+        this.channel = null;
+    }
+
+    /**
+     * 写入文件通道，通道在{@link #close()}时关闭
+     */
+    ZipRawWriter(FileChannel channel) throws IOException {
+        this.out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+        this.channel = channel;
+        this.position = channel.position();
+    }
+
+    /**
+     * 已写入的字节数
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * 写入一个entry：本地头与压缩后的数据
+     *
+     * @param entry
+     *            entry信息，crc与大小需已计算好
+     * @param data
+     *            压缩后的数据
+     */
+    void writeEntry(ZipRawEntry entry, byte[] data, int off, int len) throws IOException {
+        writeLocalHeader(entry);
+        out.write(data, off, len);
+        position += len;
+    }
+
+    /**
+     * 写入一个entry：本地头与压缩后的数据
+     *
+     * @param entry
+     *            entry信息，crc与大小需已计算好
+     * @param data
+     *            保存压缩后数据的文件
+     */
+    void writeEntry(ZipRawEntry entry, File data) throws IOException {
+        writeLocalHeader(entry);
+        try (FileChannel source = FileChannel.open(data.toPath())) {
+            transfer(source, 0, source.size());
+        }
+    }
+
+    /**
+     * 写入一个不压缩的entry，crc与大小需已计算好。写入的数据与crc或大小不符时抛出异常
+     *
+     * @param in
+     *            entry的内容，读取entry.size个字节
+     */
+    void writeEntry(ZipRawEntry entry, InputStream in) throws IOException {
+        writeLocalHeader(entry);
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = entry.size;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                break;
+            }
+            crc.update(buffer, 0, n);
+            out.write(buffer, 0, n);
+            position += n;
+            remaining -= n;
+        }
+        if (remaining > 0 || in.read() != -1 || crc.getValue() != entry.crc) {
+            throw new ZipException("invalid entry size or crc: " + entry.name);
+        }
+    }
+
+    /**
+     * 开始写入一个边压缩边写入的entry，返回的输出流接收未压缩的数据，关闭时写入数据描述符。<br>
+     * 输出流关闭之前不能写入其他entry
+     *
+     * @param entry
+     *            entry信息，crc与大小在输出流关闭后填入
+     * @param compressionLevel
+     *            压缩级别
+     */
+    OutputStream openEntry(ZipRawEntry entry, int compressionLevel) throws IOException {
+        entry.flags |= DATA_DESCRIPTOR_FLAG;
+        entry.method = ZipEntry.DEFLATED;
+        entry.versionNeeded = 20;
+        entry.crc = 0;
+        entry.compressedSize = 0;
+        entry.size = 0;
+        writeLocalHeader(entry);
+        current = new EntryOutputStream(entry, compressionLevel);
+        return current;
+    }
+
+    /**
+     * 原样拷贝其他zip中的entry（本地头、压缩数据与数据描述符），不解压也不重新压缩。写入目标是文件时使用transferTo
+     *
+     * @param entry
+     *            entry信息，其中的偏移量会被改为在新zip中的位置
+     * @param source
+     *            源zip
+     * @param offset
+     *            entry在源zip中的起始位置，即本地头的位置
+     * @param length
+     *            entry在源zip中占用的总长度
+     */
+    void copyEntry(ZipRawEntry entry, FileChannel source, long offset, long length) throws IOException {
+        addEntry(entry);
+        entry.localHeaderOffset = position;
+        transfer(source, offset, length);
+    }
+
+    private void writeLocalHeader(ZipRawEntry entry) throws IOException {
+        addEntry(entry);
+        entry.localHeaderOffset = position;
+        boolean zip64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+        writeInt(LOCAL_HEADER_SIG);
+        writeShort(zip64 ? ZIP64_VERSION : entry.versionNeeded);
+        writeShort(entry.flags);
+        writeShort(entry.method);
+        writeInt(entry.dosTime);
+        writeInt(entry.crc);
+        writeInt(zip64 ? ZIP64_MAGIC : entry.compressedSize);
+        writeInt(zip64 ? ZIP64_MAGIC : entry.size);
+        writeShort(entry.nameBytes.length);
+        writeShort(zip64 ? 20 : 0);
+        writeBytes(entry.nameBytes);
+        if (zip64) {
+            writeShort(ZIP64_EXTRA_ID);
+            writeShort(16);
+            writeLong(entry.size);
+            writeLong(entry.compressedSize);
+        }
+    }
+
+    private void addEntry(ZipRawEntry entry) throws IOException {
+        if (finished) {
+            throw new IOException("zip already finished");
+        }
+        if (current != null) {
+            throw new IOException("entry not closed: " + current.entry.name);
+        }
+        if (!names.add(entry.name)) {
+            throw new ZipException("duplicate entry: " + entry.name);
+        }
+        entries.add(entry);
+    }
+
+    private void transfer(FileChannel source, long offset, long length) throws IOException {
+        if (channel != null) {
+            out.flush();
+            long transferred = 0;
+            while (transferred < length) {
+                long n = source.transferTo(offset + transferred, length - transferred, channel);
+                if (n <= 0) {
+                    throw new EOFException("unexpected end of " + source);
+                }
+                transferred += n;
+            }
+        } else {
+            InputStream in = Channels.newInputStream(source.position(offset));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = length;
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    throw new EOFException("unexpected end of " + source);
+                }
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+        position += length;
+    }
+
+    /**
+     * 写入中央目录与结束记录。之后不能再写入entry
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (current != null) {
+            throw new IOException("entry not closed: " + current.entry.name);
+        }
+        finished = true;
+        long centralStart = position;
+        for (ZipRawEntry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        long centralSize = position - centralStart;
+        int count = entries.size();
+        if (count >= ZIP64_MAGIC_COUNT || centralStart >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC) {
+            long zip64EndOffset = position;
+            writeInt(ZIP64_END_SIG);
+            writeLong(44);
+            writeShort(ZIP64_VERSION);
+            writeShort(ZIP64_VERSION);
+            writeInt(0);
+            writeInt(0);
+            writeLong(count);
+            writeLong(count);
+            writeLong(centralSize);
+            writeLong(centralStart);
+            writeInt(ZIP64_LOCATOR_SIG);
+            writeInt(0);
+            writeLong(zip64EndOffset);
+            writeInt(1);
+        }
+        writeInt(END_SIG);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeInt(Math.min(centralSize, ZIP64_MAGIC));
+        writeInt(Math.min(centralStart, ZIP64_MAGIC));
+        writeShort(0);
+        out.flush();
+    }
+
+    private void writeCentralHeader(ZipRawEntry entry) throws IOException {
+        boolean zip64Size = entry.size >= ZIP64_MAGIC;
+        boolean zip64CompressedSize = entry.compressedSize >= ZIP64_MAGIC;
+        boolean zip64Offset = entry.localHeaderOffset >= ZIP64_MAGIC;
+        int zip64Length = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+        int zip64ExtraLength = zip64Length == 0 ? 0 : zip64Length + 4;
+        writeInt(CENTRAL_HEADER_SIG);
+        writeShort(entry.versionMadeBy);
+        writeShort(zip64Length == 0 ? entry.versionNeeded : Math.max(entry.versionNeeded, ZIP64_VERSION));
+        writeShort(entry.flags);
+        writeShort(entry.method);
+        writeInt(entry.dosTime);
+        writeInt(entry.crc);
+        writeInt(zip64CompressedSize ? ZIP64_MAGIC : entry.compressedSize);
+        writeInt(zip64Size ? ZIP64_MAGIC : entry.size);
+        writeShort(entry.nameBytes.length);
+        writeShort(zip64ExtraLength + entry.extra.length);
+        writeShort(entry.comment.length);
+        writeShort(0);
+        writeShort(entry.internalAttributes);
+        writeInt(entry.externalAttributes);
+        writeInt(zip64Offset ? ZIP64_MAGIC : entry.localHeaderOffset);
+        writeBytes(entry.nameBytes);
+        if (zip64Length > 0) {
+            writeShort(ZIP64_EXTRA_ID);
+            writeShort(zip64Length);
+            if (zip64Size) {
+                writeLong(entry.size);
+            }
+            if (zip64CompressedSize) {
+                writeLong(entry.compressedSize);
+            }
+            if (zip64Offset) {
+                writeLong(entry.localHeaderOffset);
+            }
+        }
+        writeBytes(entry.extra);
+        writeBytes(entry.comment);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 边压缩边写入entry的数据，关闭时写入数据描述符
+     */
+    private class EntryOutputStream extends OutputStream {
+        private final ZipRawEntry entry;
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private long size;
+        private boolean closed;
+
+        EntryOutputStream(ZipRawEntry entry, int compressionLevel) {
+            this.entry = entry;
+            this.deflater = new Deflater(compressionLevel, true);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("entry already closed: " + entry.name);
+            }
+            crc.update(b, off, len);
+            size += len;
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+        }
+
+        private void deflate() throws IOException {
+            int n = deflater.deflate(buffer, 0, buffer.length);
+            if (n > 0) {
+                out.write(buffer, 0, n);
+                position += n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate();
+                }
+                entry.crc = crc.getValue();
+                entry.size = size;
+                entry.compressedSize = deflater.getBytesWritten();
+                writeInt(DATA_DESCRIPTOR_SIG);
+                writeInt(entry.crc);
+                if (entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC) {
+                    writeLong(entry.compressedSize);
+                    writeLong(entry.size);
+                } else {
+                    writeInt(entry.compressedSize);
+                    writeInt(entry.size);
+                }
+            } finally {
+                deflater.end();
+                current = null;
+            }
+        }
+    }
+
+    private void writeShort(int v) throws IOException {
+        scratch[0] = (byte) v;
+        scratch[1] = (byte) (v >>> 8);
+        out.write(scratch, 0, 2);
+        position += 2;
+    }
+
+    private void writeInt(long v) throws IOException {
+        scratch[0] = (byte) v;
+        scratch[1] = (byte) (v >>> 8);
+        scratch[2] = (byte) (v >>> 16);
+        scratch[3] = (byte) (v >>> 24);
+        out.write(scratch, 0, 4);
+        position += 4;
+    }
+
+    private void writeLong(long v) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            scratch[i] = (byte) (v >>> (i * 8));
+        }
+        out.write(scratch, 0, 8);
+        position += 8;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        out.write(bytes);
+        position += bytes.length;
+    }
+}
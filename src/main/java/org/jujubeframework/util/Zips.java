@@ -1,12 +1,20 @@
 package org.jujubeframework.util;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.zip.Deflater;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.*;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -43,6 +51,16 @@ public class Zips {
      */
     public final int DEFAULT_COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
 
+    /**
+     * 并行压缩时，大于该值的文件压缩到临时文件，否则压缩到内存
+     */
+    private static final long PACK_SPILL_THRESHOLD = 8 * 1024 * 1024;
+
+    /**
+     * 并行压缩与解压时的缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final Logger log = LoggerFactory.getLogger(Zips.class);
 
     public Zips(Charset charset) {
@@ -57,14 +75,10 @@ public class Zips {
      * @return <code>true</code> if the ZIP file contains the given entry.
      */
     public boolean containsEntry(File zip, String name) {
-        ZipFile zf = null;
-        try {
-            zf = new ZipFile(zip, defaultEncoding);
-            return zf.getEntry(name) != null;
+        try (ZipIndex index = ZipIndex.open(zip, defaultEncoding)) {
+            return index.containsEntry(name);
         } catch (IOException e) {
             throw rethrow(e);
-        } finally {
-            closeQuietly(zf);
         }
     }
 
@@ -77,22 +91,11 @@ public class Zips {
      * entries.
      */
     public boolean containsAnyEntry(File zip, String[] names) {
-        ZipFile zf = null;
-        boolean result = false;
-        try {
-            zf = new ZipFile(zip, defaultEncoding);
-            for (String name : names) {
-                if (zf.getEntry(name) != null) {
-                    result = true;
-                    break;
-                }
-            }
+        try (ZipIndex index = ZipIndex.open(zip, defaultEncoding)) {
+            return index.containsAnyEntry(names);
         } catch (IOException e) {
             throw rethrow(e);
-        } finally {
-            closeQuietly(zf);
         }
-        return result;
     }
 
     /**
@@ -103,14 +106,10 @@ public class Zips {
      * @return contents of the entry or <code>null</code> if it was not found.
      */
     public byte[] unpackEntry(File zip, String name) {
-        ZipFile zf = null;
-        try {
-            zf = new ZipFile(zip, defaultEncoding);
-            return doUnpackEntry(zf, name);
+        try (ZipIndex index = ZipIndex.open(zip, defaultEncoding)) {
+            return index.unpackEntry(name);
         } catch (IOException e) {
             throw rethrow(e);
-        } finally {
-            closeQuietly(zf);
         }
     }
 
@@ -158,14 +157,10 @@ public class Zips {
      * <code>false</code> if the entry was not found.
      */
     public boolean unpackEntry(File zip, String name, File file) {
-        ZipFile zf = null;
-        try {
-            zf = new ZipFile(zip, defaultEncoding);
-            return doUnpackEntry(zf, name, file);
+        try (ZipIndex index = ZipIndex.open(zip, defaultEncoding)) {
+            return index.unpackEntry(name, file);
         } catch (IOException e) {
             throw rethrow(e);
-        } finally {
-            closeQuietly(zf);
         }
     }
 
@@ -513,18 +508,153 @@ public class Zips {
                 }
             }
         }
+    }
+
+    private String getUnrootedName(String root, String name) {
+        return name.substring(root.length());
+    }
+
+    private String getRootName(String name) {
+        name = name.substring(FilenameUtils.getPrefixLength(name));
+        int idx = name.indexOf(PATH_SEPARATOR);
+        if (idx < 0) {
+            throw new ZipException("Entry " + name + " from the root of the zip is not supported");
+        }
+        return name.substring(0, name.indexOf(PATH_SEPARATOR));
+    }
+
+    /**
+     * 并行解压：先读取中央目录并创建所有目录，再由多个线程各自打开zip文件，按压缩后大小从大到小领取entry解压，写入前预分配文件大小。
+     * 同名entry以最后一个为准，与串行解压的覆盖结果一致
+     *
+     * @param zip         input ZIP file.
+     * @param outputDir   output directory (created automatically if not found).
+     * @param mapper      call-back for renaming the entries.
+     * @param parallelism 并行度，即解压线程数
+     */
+    public void unpack(File zip, File outputDir, NameMapper mapper, int parallelism) {
+        log.debug("Extracting '{}' into '{}' with {} threads.", zip, outputDir, parallelism);
+        Map<String, UnpackTask> tasks = new LinkedHashMap<>();
+        iterate(zip, (ZipInfoCallback) zipEntry -> {
+            String name = mapper.map(zipEntry.getName());
+            if (name != null) {
+                tasks.put(zipEntry.getName(), new UnpackTask(zipEntry, new File(outputDir, name)));
+            }
+        });
+        unpack(zip, tasks.values(), parallelism);
+    }
+
+    /**
+     * 并行解压，去掉唯一的根目录。如果有多个根目录或者根目录下有文件，在解压任何文件之前抛出ZipException
+     *
+     * @param zip         input ZIP file.
+     * @param outputDir   output directory (created automatically if not found).
+     * @param mapper      call-back for renaming the entries.
+     * @param parallelism 并行度，即解压线程数
+     * @see #unpack(File, File, NameMapper, int)
+     */
+    public void unwrap(File zip, File outputDir, NameMapper mapper, int parallelism) {
+        log.debug("Unwraping '{}' into '{}' with {} threads.", zip, outputDir, parallelism);
+        Map<String, UnpackTask> tasks = new LinkedHashMap<>();
+        String[] rootDir = new String[1];
+        iterate(zip, (ZipInfoCallback) zipEntry -> {
+            String root = getRootName(zipEntry.getName());
+            if (rootDir[0] == null) {
+                rootDir[0] = root;
+            } else if (!rootDir[0].equals(root)) {
+                throw new ZipException("Unwrapping with multiple roots is not supported, roots: " + rootDir[0] + ", " + root);
+            }
+            String name = mapper.map(getUnrootedName(root, zipEntry.getName()));
+            if (name != null) {
+                tasks.put(zipEntry.getName(), new UnpackTask(zipEntry, new File(outputDir, name)));
+            }
+        });
+        unpack(zip, tasks.values(), parallelism);
+    }
+
+    private void unpack(File zip, Collection<UnpackTask> tasks, int parallelism) {
+        List<UnpackTask> files = new ArrayList<>();
+        Set<File> dirs = new TreeSet<>();
+        for (UnpackTask task : tasks) {
+            if (task.entry.isDirectory()) {
+                dirs.add(task.file);
+            } else {
+                dirs.add(task.file.getParentFile());
+                files.add(task);
+            }
+        }
+        // 大文件先解压，避免最后只剩一个线程在解压大文件
+        files.sort((a, b) -> Long.compare(b.entry.getCompressedSize(), a.entry.getCompressedSize()));
 
-        private String getUnrootedName(String root, String name) {
-            return name.substring(root.length());
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Concurrents.createThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS, parallelism, "zips-unpack-");
+        try {
+            for (File dir : dirs) {
+                FileUtils.forceMkdir(dir);
+            }
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < parallelism; i++) {
+                futures.add(executor.submit(() -> {
+                    try (ZipFile zf = new ZipFile(zip, defaultEncoding)) {
+                        int index;
+                        while ((index = next.getAndIncrement()) < files.size()) {
+                            UnpackTask task = files.get(index);
+                            ZipEntry entry = zf.getEntry(task.entry.getName());
+                            try (InputStream in = zf.getInputStream(entry)) {
+                                unpackEntry(in, entry.getSize(), task.file);
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // 让其他线程尽快停止
+                        next.set(files.size());
+                        throw e;
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (IOException e) {
+            throw rethrow(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw rethrow((IOException) e.getCause());
+            }
+            throw new ZipException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZipException(e);
+        } finally {
+            executor.shutdownNow();
         }
+    }
 
-        private String getRootName(String name) {
-            name = name.substring(FilenameUtils.getPrefixLength(name));
-            int idx = name.indexOf(PATH_SEPARATOR);
-            if (idx < 0) {
-                throw new ZipException("Entry " + name + " from the root of the zip is not supported");
+    /**
+     * 解压单个文件，写入前按entry大小预分配文件
+     */
+    private void unpackEntry(InputStream in, long size, File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(Math.max(size, 0));
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(raf.getChannel()), BUFFER_SIZE);
+            long written = IOUtils.copyLarge(in, out, new byte[BUFFER_SIZE]);
+            out.flush();
+            if (written != size) {
+                raf.setLength(written);
             }
-            return name.substring(0, name.indexOf(PATH_SEPARATOR));
+        }
+    }
+
+    /**
+     * 待解压的entry
+     */
+    private static final class UnpackTask {
+        private final ZipEntry entry;
+        private final File file;
+
+        private UnpackTask(ZipEntry entry, File file) {
+            this.entry = entry;
+            this.file = file;
         }
     }
 
@@ -676,6 +806,25 @@ public class Zips {
         }
     }
 
+    /**
+     * Compresses the given files into a ZIP file, choosing the compression of
+     * each file by the given policy.
+     * <p>
+     * The ZIP file must not be a directory and its parent directory must exist.
+     *
+     * @param filesToPack files that needs to be zipped.
+     * @param destZipFile ZIP file that will be created or overwritten.
+     * @param policy      compression policy.
+     */
+    public void packEntries(File[] filesToPack, File destZipFile, ZipCompressionPolicy policy) {
+        log.debug("Compressing '{}' into '{}'.", filesToPack, destZipFile);
+        List<PackTask> tasks = new ArrayList<>(filesToPack.length);
+        for (File fileToPack : filesToPack) {
+            tasks.add(new PackTask(fileToPack.getName(), fileToPack, false));
+        }
+        pack(tasks, destZipFile, policy);
+    }
+
     /**
      * Compresses the given directory and all its sub-directories into a ZIP
      * file.
@@ -701,16 +850,7 @@ public class Zips {
      */
     public void pack(File sourceDir, File targetZip, NameMapper mapper, int compressionLevel) {
         log.debug("Compressing '{}' into '{}'.", sourceDir, targetZip);
-
-        File[] listFiles = sourceDir.listFiles();
-        if (listFiles == null) {
-            if (!sourceDir.exists()) {
-                throw new ZipException("Given file '" + sourceDir + "' doesn't exist!");
-            }
-            throw new ZipException("Given file '" + sourceDir + "' is not a directory!");
-        } else if (listFiles.length == 0) {
-            throw new ZipException("Given directory '" + sourceDir + "' doesn't contain any files!");
-        }
+        checkSourceDir(sourceDir);
         try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(targetZip)), defaultEncoding)) {
             out.setLevel(compressionLevel);
             pack(sourceDir, out, mapper, "");
@@ -719,6 +859,84 @@ public class Zips {
         }
     }
 
+    /**
+     * Compresses the given directory and all its sub-directories into a ZIP
+     * file, choosing the compression of each file by the given policy:
+     * already compressed files are STORED, the others are deflated with the
+     * level of the policy.
+     * <p>
+     * The ZIP file must not be a directory and its parent directory must exist.
+     *
+     * @param sourceDir root directory.
+     * @param targetZip ZIP file that will be created or overwritten.
+     * @param mapper    call-back for renaming the entries.
+     * @param policy    compression policy.
+     */
+    public void pack(File sourceDir, File targetZip, NameMapper mapper, ZipCompressionPolicy policy) {
+        log.debug("Compressing '{}' into '{}'.", sourceDir, targetZip);
+        checkSourceDir(sourceDir);
+        List<PackTask> tasks = new ArrayList<>();
+        collectPackTasks(sourceDir, mapper, "", tasks);
+        pack(tasks, targetZip, policy);
+    }
+
+    private void pack(List<PackTask> tasks, File targetZip, ZipCompressionPolicy policy) {
+        try (FileChannel channel = FileChannel.open(targetZip.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                ZipRawWriter writer = new ZipRawWriter(channel)) {
+            for (PackTask task : tasks) {
+                log.debug("{} : {}", task.directory ? "directory" : "file", task.name);
+                ZipRawEntry entry = ZipRawEntry.of(task.name, defaultEncoding, task.file.lastModified(), ZipEntry.STORED, 0, 0, 0);
+                if (task.directory) {
+                    writer.writeEntry(entry, new byte[0], 0, 0);
+                } else {
+                    entry.size = task.file.length();
+                    addEntry(writer, entry, -1, () -> new FileInputStream(task.file), policy);
+                }
+            }
+        } catch (IOException e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * 按压缩策略写入entry：读取开头的一段数据判断是否压缩，压缩的边压缩边写入，不压缩的直接写入
+     *
+     * @param entry   entry信息，需已设置名称、时间与大小
+     * @param crc     内容的crc，未知则为-1，不压缩时会先读一遍内容计算crc
+     * @param content entry的内容，可能打开两次
+     */
+    private void addEntry(ZipRawWriter writer, ZipRawEntry entry, long crc, StreamSupplier content, ZipCompressionPolicy policy) throws IOException {
+        try (InputStream in = content.get()) {
+            byte[] sample = new byte[policy.getSampleSize()];
+            int length = IOUtils.read(in, sample);
+            int level = policy.getCompressionLevel(entry.name, sample, length);
+            InputStream data = new SequenceInputStream(new ByteArrayInputStream(sample, 0, length), in);
+            if (level == Deflater.NO_COMPRESSION) {
+                entry.method = ZipEntry.STORED;
+                entry.versionNeeded = 10;
+                entry.crc = crc >= 0 ? crc : checksum(content);
+                entry.compressedSize = entry.size;
+                writer.writeEntry(entry, data);
+            } else {
+                try (OutputStream out = writer.openEntry(entry, level)) {
+                    IOUtils.copyLarge(data, out, new byte[BUFFER_SIZE]);
+                }
+            }
+        }
+    }
+
+    private long checksum(StreamSupplier content) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = content.get()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
     /**
      * Compresses the given directory and all its sub-directories into a ZIP
      * file.
@@ -752,11 +970,7 @@ public class Zips {
 
                 out.putNextEntry(zipEntry);
 
-                if (isDir) {
-                    log.info("directory :" + name);
-                } else {
-                    log.info("file :" + name);
-                }
+                log.debug("{} : {}", isDir ? "directory" : "file", name);
 
                 // Copy the file content
                 if (!isDir) {
@@ -773,6 +987,224 @@ public class Zips {
         }
     }
 
+    private void checkSourceDir(File sourceDir) {
+        File[] listFiles = sourceDir.listFiles();
+        if (listFiles == null) {
+            if (!sourceDir.exists()) {
+                throw new ZipException("Given file '" + sourceDir + "' doesn't exist!");
+            }
+            throw new ZipException("Given file '" + sourceDir + "' is not a directory!");
+        } else if (listFiles.length == 0) {
+            throw new ZipException("Given directory '" + sourceDir + "' doesn't contain any files!");
+        }
+    }
+
+    /**
+     * 并行压缩目录：每个文件在线程池中独立压缩（小文件压缩到内存，大文件压缩到临时文件），再按与串行压缩相同的顺序写入zip，生成的是标准zip文件。
+     * 同时在压缩中的文件数不超过并行度的2倍，以限制内存与临时文件的占用。<br>
+     * 与串行压缩不同，compressionLevel为{@link Deflater#NO_COMPRESSION}时entry以STORED方式写入，而不是0级的DEFLATED
+     *
+     * @param sourceDir        root directory.
+     * @param targetZip        ZIP file that will be created or overwritten.
+     * @param mapper           call-back for renaming the entries.
+     * @param compressionLevel compression level，为0时不压缩（STORED）
+     * @param parallelism      并行度，即压缩线程数
+     */
+    public void pack(File sourceDir, File targetZip, NameMapper mapper, int compressionLevel, int parallelism) {
+        pack(sourceDir, targetZip, mapper, ZipCompressionPolicy.fixed(compressionLevel), parallelism);
+    }
+
+    /**
+     * 按压缩策略并行压缩目录，见{@link #pack(File, File, NameMapper, int, int)}
+     *
+     * @param sourceDir   root directory.
+     * @param targetZip   ZIP file that will be created or overwritten.
+     * @param mapper      call-back for renaming the entries.
+     * @param policy      compression policy.
+     * @param parallelism 并行度，即压缩线程数
+     */
+    public void pack(File sourceDir, File targetZip, NameMapper mapper, ZipCompressionPolicy policy, int parallelism) {
+        log.debug("Compressing '{}' into '{}' with {} threads.", sourceDir, targetZip, parallelism);
+        checkSourceDir(sourceDir);
+        List<PackTask> tasks = new ArrayList<>();
+        collectPackTasks(sourceDir, mapper, "", tasks);
+
+        int window = parallelism * 2;
+        ExecutorService executor = Concurrents.createThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS, window, "zips-pack-");
+        File spillDir = null;
+        try (FileChannel channel = FileChannel.open(targetZip.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                ZipRawWriter writer = new ZipRawWriter(channel)) {
+            spillDir = java.nio.file.Files.createTempDirectory("zips-pack").toFile();
+            File finalSpillDir = spillDir;
+            Deque<Future<PackedEntry>> pending = new ArrayDeque<>();
+            Iterator<PackTask> iterator = tasks.iterator();
+            while (iterator.hasNext() || !pending.isEmpty()) {
+                while (iterator.hasNext() && pending.size() < window) {
+                    PackTask task = iterator.next();
+                    pending.add(executor.submit(() -> compress(task, policy, finalSpillDir)));
+                }
+                write(writer, pending.poll().get());
+            }
+        } catch (IOException e) {
+            throw rethrow(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw rethrow((IOException) e.getCause());
+            }
+            throw new ZipException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZipException(e);
+        } finally {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            FileUtils.deleteQuietly(spillDir);
+        }
+    }
+
+    /**
+     * 按串行压缩的顺序收集要压缩的文件与目录
+     */
+    private void collectPackTasks(File dir, NameMapper mapper, String pathPrefix, List<PackTask> tasks) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new ZipException("Given file is not a directory '" + dir + "'");
+        }
+        for (File file : files) {
+            boolean isDir = file.isDirectory();
+            String path = pathPrefix + file.getName();
+            if (isDir) {
+                path += PATH_SEPARATOR;
+            }
+            String name = mapper.map(path);
+            if (name != null) {
+                tasks.add(new PackTask(name, file, isDir));
+            }
+            if (isDir) {
+                collectPackTasks(file, mapper, path, tasks);
+            }
+        }
+    }
+
+    /**
+     * 压缩单个文件
+     */
+    private PackedEntry compress(PackTask task, ZipCompressionPolicy policy, File spillDir) throws IOException {
+        long time = task.file.lastModified();
+        if (task.directory) {
+            return compress(task.name, time, null, 0, ZipEntry.STORED, 0, spillDir);
+        }
+        try (InputStream in = new FileInputStream(task.file)) {
+            byte[] sample = new byte[policy.getSampleSize()];
+            int length = IOUtils.read(in, sample);
+            int level = policy.getCompressionLevel(task.name, sample, length);
+            int method = level == Deflater.NO_COMPRESSION ? ZipEntry.STORED : ZipEntry.DEFLATED;
+            InputStream data = new SequenceInputStream(new ByteArrayInputStream(sample, 0, length), in);
+            return compress(task.name, time, data, task.file.length(), method, level, spillDir);
+        }
+    }
+
+    /**
+     * 压缩entry的内容，同时计算CRC与大小。小于{@link #PACK_SPILL_THRESHOLD}的内容压缩到内存，否则压缩到临时文件
+     *
+     * @param in         entry的内容，为null则是目录
+     * @param sizeHint   内容的大小，未知则为-1
+     * @param method     {@link ZipEntry#DEFLATED}或{@link ZipEntry#STORED}
+     * @param spillDir   临时文件的目录，为null则使用系统临时目录
+     */
+    private PackedEntry compress(String name, long time, InputStream in, long sizeHint, int method, int compressionLevel, File spillDir) throws IOException {
+        if (in == null) {
+            return new PackedEntry(ZipRawEntry.of(name, defaultEncoding, time, ZipEntry.STORED, 0, 0, 0), new byte[0], null);
+        }
+        File spillFile = null;
+        ByteArrayOutputStream memory = null;
+        OutputStream target;
+        if (sizeHint >= 0 && sizeHint <= PACK_SPILL_THRESHOLD) {
+            memory = new ByteArrayOutputStream((int) Math.max(64, method == ZipEntry.STORED ? sizeHint : sizeHint / 2));
+            target = memory;
+        } else {
+            spillFile = File.createTempFile("entry", ".zipdata", spillDir);
+            target = new FileOutputStream(spillFile);
+        }
+        CRC32 crc = new CRC32();
+        Deflater deflater = method == ZipEntry.STORED ? null : new Deflater(compressionLevel, true);
+        long size = 0;
+        long compressedSize;
+        try (OutputStream out = deflater == null ? new BufferedOutputStream(target, BUFFER_SIZE) : new DeflaterOutputStream(target, deflater, BUFFER_SIZE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+                size += n;
+            }
+            if (deflater != null) {
+                ((DeflaterOutputStream) out).finish();
+                compressedSize = deflater.getBytesWritten();
+            } else {
+                compressedSize = size;
+            }
+        } catch (IOException | RuntimeException e) {
+            FileUtils.deleteQuietly(spillFile);
+            throw e;
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        ZipRawEntry entry = ZipRawEntry.of(name, defaultEncoding, time, method, crc.getValue(), compressedSize, size);
+        return new PackedEntry(entry, memory == null ? null : memory.toByteArray(), spillFile);
+    }
+
+    /**
+     * 写入压缩后的entry，并删除临时文件
+     */
+    private void write(ZipRawWriter writer, PackedEntry packed) throws IOException {
+        if (packed.spillFile != null) {
+            try {
+                writer.writeEntry(packed.entry, packed.spillFile);
+            } finally {
+                FileUtils.deleteQuietly(packed.spillFile);
+            }
+        } else {
+            writer.writeEntry(packed.entry, packed.data, 0, packed.data.length);
+        }
+    }
+
+    /**
+     * 待压缩的文件或目录
+     */
+    private static final class PackTask {
+        private final String name;
+        private final File file;
+        private final boolean directory;
+
+        private PackTask(String name, File file, boolean directory) {
+            this.name = name;
+            this.file = file;
+            this.directory = directory;
+        }
+    }
+
+    /**
+     * 压缩后的entry，数据在内存或临时文件中
+     */
+    private static final class PackedEntry {
+        private final ZipRawEntry entry;
+        private final byte[] data;
+        private final File spillFile;
+
+        private PackedEntry(ZipRawEntry entry, byte[] data, File spillFile) {
+            this.entry = entry;
+            this.data = data;
+            this.spillFile = spillFile;
+        }
+    }
+
     /**
      * Repacks a provided ZIP file into a new ZIP with a given compression
      * level.
@@ -795,6 +1227,39 @@ public class Zips {
         }
     }
 
+    /**
+     * Repacks a provided ZIP file into a new ZIP, choosing the compression of
+     * each entry by the given policy. Size and CRC of the entries are taken
+     * from the source, so STORED entries are read only once.
+     *
+     * @param srcZip source ZIP file.
+     * @param dstZip destination ZIP file.
+     * @param policy compression policy.
+     */
+    public void repack(File srcZip, File dstZip, ZipCompressionPolicy policy) {
+        log.debug("Repacking '{}' into '{}'.", srcZip, dstZip);
+        try (ZipIndex index = ZipIndex.open(srcZip, defaultEncoding);
+                FileChannel channel = FileChannel.open(dstZip.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                ZipRawWriter writer = new ZipRawWriter(channel)) {
+            for (String name : new LinkedHashSet<>(index.getEntryNames())) {
+                ZipRawEntry source = index.findEntry(name);
+                ZipRawEntry entry = ZipRawEntry.of(name, defaultEncoding, 0, ZipEntry.STORED, 0, 0, 0);
+                entry.dosTime = source.dosTime;
+                entry.extra = source.extra;
+                entry.comment = source.comment;
+                entry.externalAttributes = source.externalAttributes;
+                if (source.isDirectory()) {
+                    writer.writeEntry(entry, new byte[0], 0, 0);
+                } else {
+                    entry.size = source.size;
+                    addEntry(writer, entry, source.crc, () -> index.getInputStream(source), policy);
+                }
+            }
+        } catch (IOException e) {
+            throw rethrow(e);
+        }
+    }
+
     /**
      * Repacks a provided ZIP file and replaces old file with the new one.
      * <p>
@@ -803,10 +1268,26 @@ public class Zips {
      * @param compressionLevel compression level.
      */
     public void repack(File zip, int compressionLevel) {
+        repackInPlace(zip, tmpZip -> repack(zip, tmpZip, compressionLevel));
+    }
+
+    /**
+     * Repacks a provided ZIP file with the given compression policy and
+     * replaces old file with the new one.
+     *
+     * @param zip    source ZIP file to be repacked and replaced.
+     * @param policy compression policy.
+     */
+    public void repack(File zip, ZipCompressionPolicy policy) {
+        repackInPlace(zip, tmpZip -> repack(zip, tmpZip, policy));
+    }
+
+    private void repackInPlace(File zip, Consumer<File> repack) {
         try {
             File tmpZip = FileUtil.getTempFileFor(zip);
 
-            repack(zip, tmpZip, compressionLevel);
+            repack.accept(tmpZip);
+            ZipIndex.evict(zip);
 
             // Delete original zip
             if (!zip.delete()) {
@@ -916,6 +1397,75 @@ public class Zips {
         }
     }
 
+    /**
+     * Compresses the given entries directly into an output stream, e.g. a
+     * servlet response. Entries are read lazily one by one and deflated while
+     * they are written, so the first bytes are sent before the whole archive
+     * is built and no temporary ZIP file is needed.
+     * <p>
+     * DEFLATED entries are written with a data descriptor. STORED entries
+     * (see {@link ZipEntry#setMethod(int)}) are streamed directly when the
+     * source provides both size and CRC, otherwise they are buffered first.
+     * Each entry is compressed with its own
+     * {@link ZipEntrySource#getCompressionLevel()}.
+     * <p>
+     * The output stream is flushed but not closed.
+     *
+     * @param entries ZIP entries added.
+     * @param out     target output stream.
+     */
+    public void pack(Iterator<? extends ZipEntrySource> entries, OutputStream out) {
+        ZipRawWriter writer = new ZipRawWriter(out);
+        try {
+            while (entries.hasNext()) {
+                ZipEntrySource entry = entries.next();
+                log.debug("Adding '{}'.", entry);
+                addStreamingEntry(entry, writer);
+            }
+            writer.finish();
+        } catch (IOException e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Compresses the given entries directly into a channel.
+     *
+     * @param entries ZIP entries added.
+     * @param channel target channel, not closed.
+     * @see #pack(Iterator, OutputStream)
+     */
+    public void pack(Iterator<? extends ZipEntrySource> entries, WritableByteChannel channel) {
+        pack(entries, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * 写入一个entry，DEFLATED边压缩边写入
+     */
+    private void addStreamingEntry(ZipEntrySource source, ZipRawWriter writer) throws IOException {
+        ZipEntry zipEntry = source.getEntry();
+        String name = zipEntry.getName();
+        long time = zipEntry.getTime() == -1 ? System.currentTimeMillis() : zipEntry.getTime();
+        try (InputStream in = source.getInputStream()) {
+            if (in == null) {
+                write(writer, compress(name, time, null, 0, ZipEntry.STORED, 0, null));
+            } else if (zipEntry.getMethod() == ZipEntry.STORED) {
+                if (zipEntry.getSize() >= 0 && zipEntry.getCrc() >= 0) {
+                    ZipRawEntry entry = ZipRawEntry.of(name, defaultEncoding, time, ZipEntry.STORED, zipEntry.getCrc(), zipEntry.getSize(), zipEntry.getSize());
+                    writer.writeEntry(entry, in);
+                } else {
+                    // crc与大小要写在数据之前，只能先缓存
+                    write(writer, compress(name, time, in, zipEntry.getSize(), ZipEntry.STORED, 0, null));
+                }
+            } else {
+                ZipRawEntry entry = ZipRawEntry.of(name, defaultEncoding, time, ZipEntry.DEFLATED, 0, 0, 0);
+                try (OutputStream out = writer.openEntry(entry, source.getCompressionLevel())) {
+                    IOUtils.copyLarge(in, out, new byte[BUFFER_SIZE]);
+                }
+            }
+        }
+    }
+
     /**
      * Copies an existing ZIP file and appends it with one new entry.
      *
@@ -1013,17 +1563,10 @@ public class Zips {
             log.info("Copying '" + zip + "' to '" + destZip + "' and adding " + Arrays.asList(entries) + ".");
         }
 
-        ZipOutputStream out = null;
         try {
-            out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(destZip)), defaultEncoding);
-            copyEntries(zip, out);
-            for (ZipEntrySource entry : entries) {
-                addEntry(entry, out);
-            }
+            rewrite(zip, destZip, name -> false, new HashMap<>(), Arrays.asList(entries));
         } catch (IOException e) {
             throw rethrow(e);
-        } finally {
-            closeQuietly(out);
         }
     }
 
@@ -1085,14 +1628,12 @@ public class Zips {
             log.info("Copying '" + zip + "' to '" + destZip + "' and removing paths " + Arrays.asList(paths) + ".");
         }
 
-        ZipOutputStream out = null;
+        Set<String> ignoredEntries = new HashSet<>(Arrays.asList(paths));
+        Set<String> dirNames = filterDirEntries(zip, ignoredEntries);
         try {
-            out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(destZip)), defaultEncoding);
-            copyEntries(zip, out, new HashSet(Arrays.asList(paths)));
+            rewrite(zip, destZip, name -> ignoredEntries.contains(name) || dirNames.stream().anyMatch(name::startsWith), new HashMap<>(), Collections.emptyList());
         } catch (IOException e) {
             throw rethrow(e);
-        } finally {
-            closeQuietly(out);
         }
     }
 
@@ -1113,73 +1654,20 @@ public class Zips {
         });
     }
 
-    /**
-     * Copies all entries from one ZIP file to another.
-     *
-     * @param zip source ZIP file.
-     * @param out target ZIP stream.
-     */
-    private void copyEntries(File zip, final ZipOutputStream out) {
-        // this one doesn't call copyEntries with ignoredEntries, because that
-        // has poorer performance
-        final Set names = new HashSet();
-        iterate(zip, (in, zipEntry) -> {
-            String entryName = zipEntry.getName();
-            if (names.add(entryName)) {
-                copyEntry(zipEntry, in, out);
-            } else if (log.isDebugEnabled()) {
-                log.info("Duplicate entry: {}", entryName);
-            }
-        });
-    }
-
-    /**
-     * Copies all entries from one ZIP file to another, ignoring entries with
-     * path in ignoredEntries
-     *
-     * @param zip            source ZIP file.
-     * @param out            target ZIP stream.
-     * @param ignoredEntries paths of entries not to copy
-     */
-    private void copyEntries(File zip, final ZipOutputStream out, final Set ignoredEntries) {
-        final Set names = new HashSet();
-        final Set dirNames = filterDirEntries(zip, ignoredEntries);
-        iterate(zip, (in, zipEntry) -> {
-            String entryName = zipEntry.getName();
-            if (ignoredEntries.contains(entryName)) {
-                return;
-            }
-
-            for (Object name : dirNames) {
-                String dirName = (String) name;
-                if (entryName.startsWith(dirName)) {
-                    return;
-                }
-            }
-
-            if (names.add(entryName)) {
-                copyEntry(zipEntry, in, out);
-            } else if (log.isDebugEnabled()) {
-                log.info("Duplicate entry: {}", entryName);
-            }
-        });
-    }
-
     /**
      * @param zip   zip file to traverse
      * @param names names of entries to filter dirs from
      * @return Set<String> names of entries that are dirs.
      */
-    Set filterDirEntries(File zip, Collection names) {
-        Set dirs = new HashSet();
+    Set<String> filterDirEntries(File zip, Collection<String> names) {
+        Set<String> dirs = new HashSet<>();
         if (zip == null) {
             return dirs;
         }
         ZipFile zf = null;
         try {
             zf = new ZipFile(zip, defaultEncoding);
-            for (Object name : names) {
-                String entryName = (String) name;
+            for (String entryName : names) {
                 ZipEntry entry = zf.getEntry(entryName);
                 if (entry.isDirectory()) {
                     dirs.add(entry.getName());
@@ -1298,27 +1786,10 @@ public class Zips {
             log.info("Copying '" + zip + "' to '" + destZip + "' and replacing entries " + Arrays.asList(entries) + ".");
         }
 
-        final Map entryByPath = byPath(entries);
+        final Map<String, ZipEntrySource> entryByPath = byPath(entries);
         final int entryCount = entryByPath.size();
         try {
-            final ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(destZip)), defaultEncoding);
-            try {
-                final Set names = new HashSet();
-                iterate(zip, (in, zipEntry) -> {
-                    if (names.add(zipEntry.getName())) {
-                        ZipEntrySource entry = (ZipEntrySource) entryByPath.remove(zipEntry.getName());
-                        if (entry != null) {
-                            addEntry(entry, out);
-                        } else {
-                            copyEntry(zipEntry, in, out);
-                        }
-                    } else if (log.isDebugEnabled()) {
-                        log.info("Duplicate entry: {}", zipEntry.getName());
-                    }
-                });
-            } finally {
-                closeQuietly(out);
-            }
+            rewrite(zip, destZip, name -> false, entryByPath, Collections.emptyList());
         } catch (IOException e) {
             throw rethrow(e);
         }
@@ -1353,32 +1824,10 @@ public class Zips {
             log.info("Copying '" + zip + "' to '" + destZip + "' and adding/replacing entries " + Arrays.asList(entries) + ".");
         }
 
-        final Map entryByPath = byPath(entries);
+        final Map<String, ZipEntrySource> entryByPath = byPath(entries);
         try {
-            final ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(destZip)), defaultEncoding);
-            try {
-                // Copy and replace entries
-                final Set names = new HashSet();
-                iterate(zip, (in, zipEntry) -> {
-                    if (names.add(zipEntry.getName())) {
-                        ZipEntrySource entry = (ZipEntrySource) entryByPath.remove(zipEntry.getName());
-                        if (entry != null) {
-                            addEntry(entry, out);
-                        } else {
-                            copyEntry(zipEntry, in, out);
-                        }
-                    } else if (log.isDebugEnabled()) {
-                        log.info("Duplicate entry: {}", zipEntry.getName());
-                    }
-                });
-
-                // Add new entries
-                for (Object o : entryByPath.values()) {
-                    addEntry((ZipEntrySource) o, out);
-                }
-            } finally {
-                closeQuietly(out);
-            }
+            // 替换过的entry会从entryByPath中移除，剩下的在最后添加
+            rewrite(zip, destZip, name -> false, entryByPath, entryByPath.values());
         } catch (IOException e) {
             throw rethrow(e);
         }
@@ -1403,8 +1852,8 @@ public class Zips {
     /**
      * @return given entries indexed by path.
      */
-    Map byPath(ZipEntrySource[] entries) {
-        Map result = new HashMap(entries.length);
+    Map<String, ZipEntrySource> byPath(ZipEntrySource[] entries) {
+        Map<String, ZipEntrySource> result = new LinkedHashMap<>(entries.length);
         for (ZipEntrySource source : entries) {
             result.put(source.getPath(), source);
         }
@@ -1414,15 +1863,60 @@ public class Zips {
     /**
      * @return given entries indexed by path.
      */
-    Map byPath(Collection entries) {
-        Map result = new HashMap(entries.size());
-        for (Object entry : entries) {
-            ZipEntrySource source = (ZipEntrySource) entry;
+    Map<String, ZipEntrySource> byPath(Collection<ZipEntrySource> entries) {
+        Map<String, ZipEntrySource> result = new LinkedHashMap<>(entries.size());
+        for (ZipEntrySource source : entries) {
             result.put(source.getPath(), source);
         }
         return result;
     }
 
+    /**
+     * 重写zip：未改动的entry原样拷贝（本地头、压缩数据与数据描述符，不解压也不重新压缩，写入文件时使用transferTo），只压缩新增或替换的entry。
+     * 源zip中的同名entry只保留第一个
+     *
+     * @param zip          源zip
+     * @param destZip      新zip
+     * @param skipped      要删除的entry
+     * @param replacements 要替换的entry，按路径索引，替换过的会从中移除
+     * @param appended     在最后添加的entry，在源zip的entry都处理完之后才遍历
+     */
+    private void rewrite(File zip, File destZip, Predicate<String> skipped, Map<String, ZipEntrySource> replacements, Collection<ZipEntrySource> appended)
+            throws IOException {
+        try (FileChannel source = FileChannel.open(zip.toPath(), StandardOpenOption.READ);
+                FileChannel target = FileChannel.open(destZip.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                ZipRawWriter writer = new ZipRawWriter(target)) {
+            Set<String> names = new HashSet<>();
+            for (ZipRawEntry entry : ZipCentralDirectory.read(source, defaultEncoding)) {
+                if (!names.add(entry.name)) {
+                    log.debug("Duplicate entry: {}", entry.name);
+                } else if (!skipped.test(entry.name)) {
+                    ZipEntrySource replacement = replacements.remove(entry.name);
+                    if (replacement != null) {
+                        addEntry(replacement, writer);
+                    } else {
+                        writer.copyEntry(entry, source, entry.localHeaderOffset, ZipCentralDirectory.entryLength(source, entry));
+                    }
+                }
+            }
+            for (ZipEntrySource entry : appended) {
+                addEntry(entry, writer);
+            }
+        }
+    }
+
+    /**
+     * 压缩并写入新的entry
+     */
+    private void addEntry(ZipEntrySource entry, ZipRawWriter writer) throws IOException {
+        ZipEntry zipEntry = entry.getEntry();
+        long time = zipEntry.getTime() == -1 ? System.currentTimeMillis() : zipEntry.getTime();
+        int method = zipEntry.getMethod() == ZipEntry.STORED ? ZipEntry.STORED : ZipEntry.DEFLATED;
+        try (InputStream in = entry.getInputStream()) {
+            write(writer, compress(zipEntry.getName(), time, in, zipEntry.getSize(), method, DEFAULT_COMPRESSION_LEVEL, null));
+        }
+    }
+
     /**
      * Adds a given ZIP entry to a ZIP file.
      *
@@ -1495,19 +1989,10 @@ public class Zips {
      * @return <code>true</code> if the contents of the entries were same.
      */
     public boolean entryEquals(File f1, File f2, String path1, String path2) {
-        ZipFile zf1 = null;
-        ZipFile zf2 = null;
-
-        try {
-            zf1 = new ZipFile(f1, defaultEncoding);
-            zf2 = new ZipFile(f2, defaultEncoding);
-
-            return doEntryEquals(zf1, zf2, path1, path2);
+        try (ZipIndex index1 = ZipIndex.open(f1, defaultEncoding); ZipIndex index2 = ZipIndex.open(f2, defaultEncoding)) {
+            return doEntryEquals(index1, index2, path1, path2);
         } catch (IOException e) {
             throw rethrow(e);
-        } finally {
-            closeQuietly(zf1);
-            closeQuietly(zf2);
         }
     }
 
@@ -1568,6 +2053,51 @@ public class Zips {
         }
     }
 
+    /**
+     * Compares two ZIP entries (byte-by-byte). Entries with different size or
+     * CRC are reported as different without reading them.
+     *
+     * @param index1 first ZIP file.
+     * @param index2 second ZIP file.
+     * @param path1  name of the first entry.
+     * @param path2  name of the second entry.
+     * @return <code>true</code> if the contents of the entries were same.
+     */
+    private boolean doEntryEquals(ZipIndex index1, ZipIndex index2, String path1, String path2) throws IOException {
+        ZipRawEntry e1 = index1.findEntry(path1);
+        ZipRawEntry e2 = index2.findEntry(path2);
+        if (e1 == null && e2 == null) {
+            return true;
+        }
+        if (e1 == null || e2 == null) {
+            return false;
+        }
+        if (e1.size != e2.size || e1.crc != e2.crc) {
+            return false;
+        }
+        try (InputStream is1 = index1.getInputStream(e1); InputStream is2 = index2.getInputStream(e2)) {
+            return IOUtils.contentEquals(is1, is2);
+        }
+    }
+
+    /**
+     * Returns the cached central directory index of the ZIP file. The index is
+     * parsed once and reused until the file is modified, so repeated lookups
+     * and reads on the same archive do not parse the central directory again.
+     * <p>
+     * The returned index must be closed after use. The cache keeps the file open
+     * until the index is evicted, so call {@link ZipIndex#evict(File)} before
+     * deleting or replacing the file. The other <code>File</code> based methods
+     * of this class do not use the cache and close the file on return.
+     *
+     * @param zip ZIP file.
+     * @return index of the ZIP file.
+     * @see ZipIndex#cached(File, Charset)
+     */
+    public ZipIndex index(File zip) throws IOException {
+        return ZipIndex.cached(zip, defaultEncoding);
+    }
+
     /**
      * Closes the ZIP file while ignoring any errors.
      *
@@ -1620,6 +2150,7 @@ public class Zips {
             tmp = File.createTempFile("zt-zip-tmp", ".zip");
             boolean result = action.act(tmp);
             if (result) {
+                ZipIndex.evict(src);
                 FileUtils.forceDelete(src);
                 FileUtils.moveFile(tmp, src);
             }
@@ -1787,6 +2318,31 @@ public class Zips {
          */
         InputStream getInputStream() throws IOException;
 
+        /**
+         * getCompressionLevel
+         *
+         * @return compression level used when this entry is deflated.
+         */
+        default int getCompressionLevel() {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+
+    }
+
+    /**
+     * Supplies the contents of a {@link StreamSource} when the entry is written.
+     */
+    @FunctionalInterface
+    public interface StreamSupplier {
+
+        /**
+         * get
+         *
+         * @return an input stream of the entry.
+         * @throws IOException io错误
+         */
+        InputStream get() throws IOException;
+
     }
 
     public static class FileSource implements ZipEntrySource {
@@ -1877,6 +2433,71 @@ public class Zips {
 
     }
 
+    /**
+     * Entry whose contents are opened lazily when it is written, so large
+     * contents never have to be held in memory.
+     */
+    public static class StreamSource implements ZipEntrySource {
+
+        private final String path;
+        private final long time;
+        private final int method;
+        private final int compressionLevel;
+        private final StreamSupplier supplier;
+
+        public StreamSource(String path, StreamSupplier supplier) {
+            this(path, System.currentTimeMillis(), supplier);
+        }
+
+        public StreamSource(String path, long time, StreamSupplier supplier) {
+            this(path, time, ZipEntry.DEFLATED, Deflater.DEFAULT_COMPRESSION, supplier);
+        }
+
+        /**
+         * @param method           {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}
+         *                         (e.g. for already compressed media).
+         * @param compressionLevel compression level of a DEFLATED entry.
+         * @param supplier         contents of the entry, <code>null</code> for a
+         *                         directory.
+         */
+        public StreamSource(String path, long time, int method, int compressionLevel, StreamSupplier supplier) {
+            this.path = path;
+            this.time = time;
+            this.method = method;
+            this.compressionLevel = compressionLevel;
+            this.supplier = supplier;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public ZipEntry getEntry() {
+            ZipEntry entry = new ZipEntry(path);
+            entry.setMethod(method);
+            entry.setTime(time);
+            return entry;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return supplier == null ? null : supplier.get();
+        }
+
+        @Override
+        public int getCompressionLevel() {
+            return compressionLevel;
+        }
+
+        @Override
+        public String toString() {
+            return "StreamSource[" + path + "]";
+        }
+
+    }
+
     public static class ZipBreakException extends RuntimeException {
         private static final long serialVersionUID = 5863129897045964421L;
 
@@ -8,30 +8,39 @@ import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.lang3.Validate;
 import org.jujubeframework.constant.Charsets;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
+import java.io.*;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * Csv读取器
+ * Csv读取器<br>
+ * 默认会把所有记录读入内存，可以通过行号随机读取。对于超大文件，请使用懒加载模式：迭代时直接从文件中流式读取记录，内存占用与文件大小无关
  *
  * @author John Li
  */
 @Slf4j
 public class CsvReader implements Iterable<List<String>> {
-    private FileInputStream csvInputStream;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final File csvFile;
+    private final Charset charset;
+    private final CSVFormat csvFormat;
     private final ExcelReaderConfig config;
     /**
-     * 工作薄的总行数
+     * 是否为懒加载模式
+     */
+    private final boolean lazy;
+    /**
+     * 工作薄的总行数。懒加载模式下，首次调用{@link #getRowCount()}时才会计算
      */
-    private int rowCount;
+    private int rowCount = -1;
     private List<CSVRecord> csvRecords;
+    /**
+     * 懒加载模式下打开的解析器，close时统一关闭
+     */
+    private final List<CSVParser> openedParsers = new ArrayList<>();
     public static final Charset DEFAULT_CHARSET = Charsets.GBK;
 
     /**
@@ -59,34 +68,107 @@ public class CsvReader implements Iterable<List<String>> {
      *            文件读取的一些配置规则
      */
     public CsvReader(File file, Charset charset, ExcelReaderConfig config, CSVFormat csvFormat) {
+        this(file, charset, config, csvFormat, false);
+    }
+
+    /**
+     * 构造
+     *
+     * @param file
+     *            csv文件
+     * @param charset
+     *            文件编码
+     * @param config
+     *            文件读取的一些配置规则
+     * @param lazy
+     *            是否为懒加载模式。懒加载模式下不会把记录读入内存，不支持{@link #getRow(int)}
+     */
+    public CsvReader(File file, Charset charset, ExcelReaderConfig config, CSVFormat csvFormat, boolean lazy) {
         Validate.notNull(config);
         Validate.isTrue(file.exists(), "file not exists");
         this.config = config;
         this.csvFile = file;
-        try {
-            csvInputStream = new FileInputStream(csvFile);
-            CSVParser csvParser = CSVParser.parse(csvFile, charset, csvFormat);
-            csvRecords = csvParser.getRecords();
-            rowCount = (int) csvParser.getRecordNumber();
-        } catch (IOException e) {
-            log.error("CsvReader", e);
+        this.charset = charset;
+        this.csvFormat = csvFormat;
+        this.lazy = lazy;
+        if (!lazy) {
+            try (CSVParser csvParser = CSVParser.parse(csvFile, charset, csvFormat)) {
+                csvRecords = csvParser.getRecords();
+                rowCount = (int) csvParser.getRecordNumber();
+            } catch (IOException e) {
+                log.error("CsvReader", e);
+                // 解析失败时按空文件处理
+                csvRecords = Collections.emptyList();
+                rowCount = 0;
+            }
         }
     }
 
+    /**
+     * 获得相应行数据。懒加载模式下不支持
+     */
     public List<String> getRow(int rowNo) {
+        if (lazy) {
+            throw new UnsupportedOperationException("getRow is not supported in lazy mode");
+        }
         return recordToStringList(csvRecords.get(rowNo));
     }
 
     @Override
     public Iterator<List<String>> iterator() {
+        if (lazy) {
+            return new LazyItr(openParser());
+        }
         return new Itr();
     }
 
+    /**
+     * 获得行数据的Stream。懒加载模式下，需要关闭Stream以释放文件句柄：
+     *
+     * <pre>
+     * try (Stream&lt;List&lt;String&gt;&gt; rows = csvReader.stream()) {
+     *     rows.forEach(...);
+     * }
+     * </pre>
+     */
+    public Stream<List<String>> stream() {
+        if (!lazy) {
+            return csvRecords.stream().map(this::recordToStringList);
+        }
+        CSVParser csvParser = openParser();
+        return StreamSupport.stream(csvParser.spliterator(), false).map(this::recordToStringList).onClose(() -> closeParser(csvParser));
+    }
+
+    /**
+     * 关闭懒加载模式下尚未读取完毕的解析器
+     */
     public void close() throws IOException {
-        csvInputStream.close();
+        List<CSVParser> parsers;
+        synchronized (openedParsers) {
+            parsers = new ArrayList<>(openedParsers);
+            openedParsers.clear();
+        }
+        for (CSVParser parser : parsers) {
+            parser.close();
+        }
     }
 
+    /**
+     * 获得总行数。懒加载模式下，首次调用会完整扫描一遍文件
+     */
     public int getRowCount() {
+        if (rowCount < 0) {
+            CSVParser csvParser = openParser();
+            try {
+                int count = 0;
+                for (Iterator<CSVRecord> iterator = csvParser.iterator(); iterator.hasNext(); iterator.next()) {
+                    count++;
+                }
+                rowCount = count;
+            } finally {
+                closeParser(csvParser);
+            }
+        }
         return rowCount;
     }
 
@@ -94,8 +176,32 @@ public class CsvReader implements Iterable<List<String>> {
         return csvFile;
     }
 
+    private CSVParser openParser() {
+        try {
+            Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(csvFile), charset), BUFFER_SIZE);
+            CSVParser csvParser = new CSVParser(reader, csvFormat);
+            synchronized (openedParsers) {
+                openedParsers.add(csvParser);
+            }
+            return csvParser;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void closeParser(CSVParser csvParser) {
+        synchronized (openedParsers) {
+            openedParsers.remove(csvParser);
+        }
+        try {
+            csvParser.close();
+        } catch (IOException e) {
+            log.error("CsvReader.close", e);
+        }
+    }
+
     private List<String> recordToStringList(CSVRecord record) {
-        List<String> list = Lists.newArrayList();
+        List<String> list = Lists.newArrayListWithCapacity(record.size());
         for (String cellContent : record) {
             if (config.isTrimCellContent()) {
                 cellContent = cellContent.trim();
@@ -106,6 +212,11 @@ public class CsvReader implements Iterable<List<String>> {
     }
 
     public List<List<String>> getRows() {
+        if (lazy) {
+            List<List<String>> data = new ArrayList<>();
+            forEach(data::add);
+            return data;
+        }
         List<List<String>> data = new ArrayList<>();
         for (int i = 0; i < getRowCount(); i++) {
             data.add(getRow(i));
@@ -138,4 +249,44 @@ public class CsvReader implements Iterable<List<String>> {
         }
 
     }
+
+    /**
+     * 懒加载模式下的迭代器，直接从解析器中读取记录，读取完毕后自动关闭解析器
+     */
+    private class LazyItr implements Iterator<List<String>> {
+        private final CSVParser csvParser;
+        private final Iterator<CSVRecord> records;
+        private boolean closed;
+
+        private LazyItr(CSVParser csvParser) {
+            this.csvParser = csvParser;
+            this.records = csvParser.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (closed) {
+                return false;
+            }
+            boolean hasNext = records.hasNext();
+            if (!hasNext) {
+                closed = true;
+                closeParser(csvParser);
+            }
+            return hasNext;
+        }
+
+        @Override
+        public List<String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return recordToStringList(records.next());
+        }
+
+        @Override
+        public void remove() {
+            throw new RuntimeException("not execute remove");
+        }
+    }
 }
@@ -0,0 +1,208 @@
+package org.jujubeframework.util.office;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.Validate;
+import org.jujubeframework.util.Concurrents;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Excel/Csv导入流水线<br>
+ * 读取线程（调用者线程）负责解析行数据，按块（chunk）交给有界的工作线程池处理（如校验、入库），使解析与处理重叠进行。<br>
+ * 待处理的块数量有上限，超过上限时读取线程会阻塞等待（背压），避免内存中堆积过多数据
+ *
+ * @author John Li
+ */
+@Slf4j
+public class ExcelImportPipeline {
+
+    /**
+     * 每个块的行数
+     */
+    private final int chunkSize;
+    /**
+     * 工作线程数
+     */
+    private final int workerNum;
+    /**
+     * 允许排队等待处理的块数量
+     */
+    private final int maxPendingChunks;
+
+    /**
+     * 构造，工作线程数为cpu核数，排队块数量为工作线程数的2倍
+     *
+     * @param chunkSize
+     *            每个块的行数
+     */
+    public ExcelImportPipeline(int chunkSize) {
+        this(chunkSize, Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * 构造
+     *
+     * @param chunkSize
+     *            每个块的行数
+     * @param workerNum
+     *            工作线程数
+     * @param maxPendingChunks
+     *            允许排队等待处理的块数量
+     */
+    public ExcelImportPipeline(int chunkSize, int workerNum, int maxPendingChunks) {
+        Validate.isTrue(chunkSize > 0, "chunkSize must be greater than 0");
+        Validate.isTrue(workerNum > 0, "workerNum must be greater than 0");
+        Validate.isTrue(maxPendingChunks > 0, "maxPendingChunks must be greater than 0");
+        this.chunkSize = chunkSize;
+        this.workerNum = workerNum;
+        this.maxPendingChunks = maxPendingChunks;
+    }
+
+    /**
+     * 按块处理行数据
+     *
+     * @param rows
+     *            行数据，如{@link ExcelReader}、{@link CsvReader}
+     * @param skipRows
+     *            跳过前几行（如表头）
+     * @param chunkHandler
+     *            块处理器，会在工作线程中被并发调用
+     * @return 统计信息
+     */
+    public Stats process(Iterable<List<String>> rows, int skipRows, Consumer<List<List<String>>> chunkHandler) {
+        return run(rows, skipRows, chunkHandler);
+    }
+
+    /**
+     * 按块处理entity。行到entity的转换在工作线程中进行
+     *
+     * @param rows
+     *            行数据，如{@link ExcelReader}、{@link CsvReader}
+     * @param entityClass
+     *            实体类，字段需标注{@link ExcelReader.ExcelColumn}
+     * @param wipeOffHead
+     *            是否去除头部
+     * @param chunkHandler
+     *            块处理器，会在工作线程中被并发调用
+     * @return 统计信息
+     */
+    public <T> Stats processEntity(Iterable<List<String>> rows, Class<T> entityClass, boolean wipeOffHead, Consumer<List<T>> chunkHandler) {
+        Field[] fields = entityClass.getDeclaredFields();
+        return run(rows, wipeOffHead ? 1 : 0, chunk -> {
+            List<T> entities = new ArrayList<>(chunk.size());
+            for (List<String> row : chunk) {
+                entities.add(ExcelReader.rowToEntity(row, entityClass, fields));
+            }
+            chunkHandler.accept(entities);
+        });
+    }
+
+    private Stats run(Iterable<List<String>> rows, int skipRows, Consumer<List<List<String>>> chunkHandler) {
+        // 许可在任务结束前释放，此时工作线程还没有取下一个任务，最坏情况下所有许可对应的块都在队列中，
+        // 所以队列容量与许可数相同（workerNum + maxPendingChunks），提交时不会被拒绝
+        int permitNum = workerNum + maxPendingChunks;
+        ExecutorService executor = Concurrents.createThreadPoolExecutor(workerNum, workerNum, 0L, TimeUnit.MILLISECONDS, permitNum, "excel-import-pipeline-");
+        Semaphore permits = new Semaphore(permitNum);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        LongAdder processNanos = new LongAdder();
+        long readNanos = 0;
+        long blockedNanos = 0;
+        long rowNum = 0;
+        long chunkNum = 0;
+        long begin = System.nanoTime();
+        try {
+            Iterator<List<String>> iterator = rows.iterator();
+            for (int i = 0; i < skipRows && iterator.hasNext(); i++) {
+                iterator.next();
+            }
+            while (failure.get() == null) {
+                long readBegin = System.nanoTime();
+                List<List<String>> chunk = new ArrayList<>(chunkSize);
+                while (chunk.size() < chunkSize && iterator.hasNext()) {
+                    chunk.add(iterator.next());
+                }
+                readNanos += System.nanoTime() - readBegin;
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                rowNum += chunk.size();
+                chunkNum++;
+
+                long waitBegin = System.nanoTime();
+                permits.acquire();
+                blockedNanos += System.nanoTime() - waitBegin;
+                executor.execute(() -> {
+                    long processBegin = System.nanoTime();
+                    try {
+                        if (failure.get() == null) {
+                            chunkHandler.accept(chunk);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        processNanos.add(System.nanoTime() - processBegin);
+                        permits.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure.get() != null) {
+            throw new RuntimeException("excel import pipeline failed", failure.get());
+        }
+        Stats stats = new Stats();
+        stats.setRowNum(rowNum);
+        stats.setChunkNum(chunkNum);
+        stats.setElapsedNanos(System.nanoTime() - begin);
+        stats.setReadNanos(readNanos);
+        stats.setBlockedNanos(blockedNanos);
+        stats.setProcessNanos(processNanos.sum());
+        log.info("excel import pipeline: {}", stats);
+        return stats;
+    }
+
+    /**
+     * 流水线统计信息
+     */
+    @Data
+    public static class Stats {
+        /** 处理的总行数 */
+        private long rowNum;
+        /** 处理的总块数 */
+        private long chunkNum;
+        /** 总耗时（纳秒） */
+        private long elapsedNanos;
+        /** 读取线程解析行数据的耗时（纳秒） */
+        private long readNanos;
+        /** 读取线程因背压而阻塞的耗时（纳秒） */
+        private long blockedNanos;
+        /** 所有工作线程处理块的耗时之和（纳秒） */
+        private long processNanos;
+
+        /**
+         * 每秒处理的行数
+         */
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rowNum * 1e9 / elapsedNanos;
+        }
+    }
+}
@@ -56,6 +56,17 @@ public class ExcelReader implements Iterable<List<String>> {
         init(inputStream, sheetIndex);
     }
 
+    /**
+     * 构造函数，直接使用已解析的Sheet。供{@link ExcelWorkbookReader}使用，避免同一个工作簿被重复解析
+     */
+    ExcelReader(Sheet sheet, FormulaEvaluator evaluator, ExcelReaderConfig config) {
+        Validate.notNull(config);
+        this.config = config;
+        this.sheet = sheet;
+        this.evaluator = evaluator;
+        this.rowCount = config.isBlankLineTerminated() ? realRows() : sheet.getLastRowNum() + 1;
+    }
+
     /**
      * 初始化
      */
@@ -180,6 +191,10 @@ public class ExcelReader implements Iterable<List<String>> {
                 cell.setCellType(CellType.STRING);
                 cellContent = cell.toString();
                 break;
+            case STRING:
+                // SXSSFWorkbook写出的是内联字符串，转换单元格类型会丢失内容
+                cellContent = cell.getStringCellValue();
+                break;
             default:
                 cell.setCellType(CellType.STRING);
                 cellContent = cell.toString();
@@ -204,21 +219,27 @@ public class ExcelReader implements Iterable<List<String>> {
         List<T> list = new ArrayList<>();
         Field[] fields = entityClass.getDeclaredFields();
         for (int i = wipeOffHead ? 1 : 0; i < getRowCount(); i++) {
-            List<String> row = getRow(i);
-            T t = Beans.getInstance(entityClass);
-            for (Field field : fields) {
-                ExcelColumn fieldAnnotation = field.getAnnotation(ExcelColumn.class);
-                if (fieldAnnotation != null) {
-                    int index = fieldAnnotation.value();
-                    if (row.size() > index) {
-                        String val = row.get(index);
-                        Beans.setProperty(t, field.getName(), val);
-                    }
+            list.add(rowToEntity(getRow(i), entityClass, fields));
+        }
+        return list;
+    }
+
+    /**
+     * 把一行数据转换为entity，根据字段上的{@link ExcelColumn}注解取值
+     */
+    static <T> T rowToEntity(List<String> row, Class<T> entityClass, Field[] fields) {
+        T t = Beans.getInstance(entityClass);
+        for (Field field : fields) {
+            ExcelColumn fieldAnnotation = field.getAnnotation(ExcelColumn.class);
+            if (fieldAnnotation != null) {
+                int index = fieldAnnotation.value();
+                if (row.size() > index) {
+                    String val = row.get(index);
+                    Beans.setProperty(t, field.getName(), val);
                 }
             }
-            list.add(t);
         }
-        return list;
+        return t;
     }
 
     private class Itr implements Iterator<List<String>> {
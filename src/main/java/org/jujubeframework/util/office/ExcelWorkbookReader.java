@@ -0,0 +1,112 @@
+package org.jujubeframework.util.office;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Excel工作簿读取器<br>
+ * 只解析一次工作簿，即可读取其中所有的Sheet。而{@link ExcelReader}每次只能读取一个Sheet，多Sheet时需要重复解析整个文件<br>
+ * 注意：底层的POI Workbook不是线程安全的，同一个工作簿下的Sheet不要并发读取。如需并发处理行数据，请使用{@link ExcelImportPipeline}
+ *
+ * @author John Li
+ */
+public class ExcelWorkbookReader implements Closeable {
+
+    private final Workbook workbook;
+    private final FormulaEvaluator evaluator;
+    private final ExcelReaderConfig config;
+    /**
+     * 已创建的Sheet读取器，按sheetIndex缓存
+     */
+    private final ExcelReader[] readers;
+
+    /**
+     * 构造函数
+     *
+     * @param inputStream
+     *            Excel文件流
+     * @param config
+     *            读取配置
+     */
+    public ExcelWorkbookReader(InputStream inputStream, ExcelReaderConfig config) {
+        Validate.notNull(config);
+        this.config = config;
+        try {
+            this.workbook = WorkbookFactory.create(inputStream);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+        this.readers = new ExcelReader[workbook.getNumberOfSheets()];
+    }
+
+    /**
+     * 获得Sheet总数
+     */
+    public int getNumberOfSheets() {
+        return readers.length;
+    }
+
+    /**
+     * 获得所有Sheet的名称
+     */
+    public List<String> getSheetNames() {
+        List<String> names = new ArrayList<>(readers.length);
+        for (int i = 0; i < readers.length; i++) {
+            names.add(workbook.getSheetName(i));
+        }
+        return names;
+    }
+
+    /**
+     * 获得某个Sheet的读取器
+     *
+     * @param sheetIndex
+     *            从0开始
+     */
+    public ExcelReader getSheet(int sheetIndex) {
+        Validate.validIndex(readers, sheetIndex);
+        if (readers[sheetIndex] == null) {
+            readers[sheetIndex] = new ExcelReader(workbook.getSheetAt(sheetIndex), evaluator, config);
+        }
+        return readers[sheetIndex];
+    }
+
+    /**
+     * 根据名称获得某个Sheet的读取器
+     *
+     * @return 如果没有对应的Sheet，返回null
+     */
+    public ExcelReader getSheet(String sheetName) {
+        Sheet sheet = workbook.getSheet(sheetName);
+        if (sheet == null) {
+            return null;
+        }
+        return getSheet(workbook.getSheetIndex(sheet));
+    }
+
+    /**
+     * 获得所有Sheet的读取器
+     */
+    public List<ExcelReader> getSheets() {
+        List<ExcelReader> list = new ArrayList<>(readers.length);
+        for (int i = 0; i < readers.length; i++) {
+            list.add(getSheet(i));
+        }
+        return list;
+    }
+
+    @Override
+    public void close() throws IOException {
+        workbook.close();
+    }
+}
@@ -1,13 +1,13 @@
 package org.jujubeframework.util.office;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.text.StringEscapeUtils;
 import org.apache.poi.hssf.usermodel.DVConstraint;
 import org.apache.poi.hssf.usermodel.HSSFDataValidation;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddressList;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.jujubeframework.constant.SystemProperties;
 import org.jujubeframework.util.Files;
@@ -15,8 +15,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * Excel写入工具类
@@ -27,12 +34,35 @@ public class ExcelWriter {
     private static final Logger logger = LoggerFactory.getLogger(ExcelWriter.class);
 
     public static final String CSV_FILE_SUFFIX = ".csv";
+    /**
+     * 流式写入excel时，内存中默认保留的行数
+     */
+    public static final int DEFAULT_ROW_ACCESS_WINDOW_SIZE = SXSSFWorkbook.DEFAULT_WINDOW_SIZE;
+    /**
+     * csv单元格中需要转义的字符
+     */
+    private static final char[] CSV_SEARCH_CHARS = { ',', '"', '\r', '\n' };
+    private static final int CSV_BUFFER_SIZE = 64 * 1024;
+    /**
+     * 模板文件缓存的最大数量
+     */
+    private static final int TEMPLATE_CACHE_SIZE = 32;
+    /**
+     * 模板文件缓存（LRU），key为模板文件路径
+     */
+    private static final Map<String, TemplateHolder> TEMPLATE_CACHE = Collections.synchronizedMap(new LinkedHashMap<String, TemplateHolder>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TemplateHolder> eldest) {
+            return size() > TEMPLATE_CACHE_SIZE;
+        }
+    });
 
     private ExcelWriter() {
     }
 
     /**
-     * 根据模板写入Excel
+     * 根据模板写入Excel。在内存中写入，sheetHandler可以读取、修改模板中的所有行；大数据量导出见
+     * {@link #writeExcelWithTemplate(String, OutputStream, int, Iterator, ExcelSheetHandler)}
      *
      * @param templateFilePath
      *            模板文件路径
@@ -42,11 +72,11 @@ public class ExcelWriter {
      *            设定保留模板前几行
      * @param lines
      *            数据
+     * @param sheetHandler
+     *            写入数据前对sheet的处理
      * @return File 已经写入数据的Excel。如果出错，则返回null
      */
     public static File writeExcelWithTemplate(String templateFilePath, String destFileName, int copyLineIndex, List<List<String>> lines, ExcelSheetHandler sheetHandler) {
-        FileOutputStream out = null;
-        FileInputStream templateInput = null;
         File destFile = null;
         try {
             // 解决线程同步问题，创建一个不可能冲突的文件夹
@@ -54,52 +84,92 @@ public class ExcelWriter {
             if (!tmpDir.exists()) {
                 tmpDir.mkdirs();
             }
-            copyTemplate(templateFilePath, tmpDir.getAbsolutePath() + "/template.xls");
-            File templateFile = new File(tmpDir, "template.xls");
             destFile = new File(tmpDir, destFileName);
-
-            templateInput = new FileInputStream(templateFile);
-            Workbook workbook = WorkbookFactory.create(templateInput);
-            Sheet sheet = workbook.getSheetAt(0);
-            if (sheetHandler != null) {
-                sheetHandler.handler(sheet);
-            }
-            for (int i = 0; i < lines.size(); i++) {
-                List<String> vRow = lines.get(i);
-                Row row = sheet.createRow(copyLineIndex + i);
-                for (int j = 0; j < vRow.size(); j++) {
-                    String cValue = vRow.get(j);
-                    row.createCell(j).setCellValue(cValue);
-                }
+            Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(getTemplateBytes(templateFilePath)));
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(destFile))) {
+                writeTemplateSheet(workbook, out, copyLineIndex, lines.iterator(), sheetHandler);
+            } finally {
+                workbook.close();
             }
-            out = new FileOutputStream(destFile);
-            workbook.write(out);
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
-        } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    logger.error(e.getMessage(), e);
+        }
+        return destFile;
+    }
+
+    /**
+     * 根据模板流式写入Excel，直接写入输出流。输出流需由调用者关闭<br>
+     * 模板文件只读取一次并缓存在内存中（文件修改后会重新读取），每次导出都从缓存中打开新的工作簿，因此可以并发导出。
+     * xlsx模板会通过SXSSF流式写入数据行（模板中copyLineIndex及之后的行会被删除），xls模板则在内存中写入
+     *
+     * @param templateFilePath
+     *            模板文件路径
+     * @param out
+     *            输出流
+     * @param copyLineIndex
+     *            设定保留模板前几行
+     * @param rows
+     *            数据
+     * @param sheetHandler
+     *            写入数据前对sheet的处理。xlsx模板传入的是删除多余行后的XSSFSheet，可以读取、修改保留的模板行，
+     *            但不能创建copyLineIndex及之后的行（这些行由数据行流式写入）
+     * @return 写入的行数
+     */
+    public static long writeExcelWithTemplate(String templateFilePath, OutputStream out, int copyLineIndex, Iterator<List<String>> rows, ExcelSheetHandler sheetHandler)
+            throws IOException {
+        Workbook template = WorkbookFactory.create(new ByteArrayInputStream(getTemplateBytes(templateFilePath)));
+        if (template instanceof XSSFWorkbook) {
+            XSSFSheet templateSheet = ((XSSFWorkbook) template).getSheetAt(0);
+            // 只保留模板的前copyLineIndex行，数据行由SXSSF追加在其后
+            for (int i = templateSheet.getLastRowNum(); i >= copyLineIndex; i--) {
+                Row row = templateSheet.getRow(i);
+                if (row != null) {
+                    templateSheet.removeRow(row);
                 }
             }
-            if (templateInput != null) {
-                try {
-                    templateInput.close();
-                } catch (IOException e) {
-                    logger.error(e.getMessage(), e);
-                }
+            // SXSSFSheet读不到模板中的行，在包装为SXSSF前处理
+            if (sheetHandler != null) {
+                sheetHandler.handler(templateSheet);
+            }
+            SXSSFWorkbook workbook = new SXSSFWorkbook((XSSFWorkbook) template, DEFAULT_ROW_ACCESS_WINDOW_SIZE);
+            try {
+                return writeTemplateSheet(workbook, out, copyLineIndex, rows, null);
+            } finally {
+                workbook.dispose();
+                workbook.close();
             }
         }
-        return destFile;
+        try {
+            return writeTemplateSheet(template, out, copyLineIndex, rows, sheetHandler);
+        } finally {
+            template.close();
+        }
+    }
+
+    private static long writeTemplateSheet(Workbook workbook, OutputStream out, int copyLineIndex, Iterator<List<String>> rows, ExcelSheetHandler sheetHandler)
+            throws IOException {
+        Sheet sheet = workbook.getSheetAt(0);
+        if (sheetHandler != null) {
+            sheetHandler.handler(sheet);
+        }
+        long count = writeRows(sheet, copyLineIndex, rows);
+        workbook.write(out);
+        return count;
     }
 
     /**
-     * 这里进行异步处理，不可直接拷贝，以防模板文件处于冲突状态
+     * 获得模板文件内容。模板文件的修改时间或大小变化时，重新读取
      */
-    private static synchronized void copyTemplate(String templatePath, String destPath) throws IOException {
-        FileUtils.copyFile(new File(templatePath), new File(destPath));
+    private static byte[] getTemplateBytes(String templateFilePath) throws IOException {
+        File templateFile = new File(templateFilePath);
+        long lastModified = templateFile.lastModified();
+        long length = templateFile.length();
+        TemplateHolder holder = TEMPLATE_CACHE.get(templateFilePath);
+        if (holder == null || holder.lastModified != lastModified || holder.length != length) {
+            holder = new TemplateHolder(lastModified, length, FileUtils.readFileToByteArray(templateFile));
+            TEMPLATE_CACHE.put(templateFilePath, holder);
+        }
+        return holder.bytes;
     }
 
     /**
@@ -111,24 +181,72 @@ public class ExcelWriter {
      *            数据
      */
     public static void generateExcel(File destFile, List<List<String>> lines) {
-        FileOutputStream outputStream = null;
+        generateExcel(destFile, lines.iterator(), DEFAULT_ROW_ACCESS_WINDOW_SIZE);
+    }
+
+    /**
+     * 流式生成excle，内存中只保留rowAccessWindowSize行，适合大数据量导出
+     *
+     * @param destFile
+     *            excel文件地址
+     * @param rows
+     *            数据
+     * @param rowAccessWindowSize
+     *            内存中保留的行数，超出的行会被写入临时文件
+     * @return 写入的行数
+     */
+    public static long generateExcel(File destFile, Iterator<List<String>> rows, int rowAccessWindowSize) {
+        long count = 0;
         try {
             if (!destFile.exists()) {
                 destFile = Files.createFile(destFile.getAbsolutePath());
             }
-            outputStream = new FileOutputStream(destFile);
-            IOUtils.copy(generateExcelInputStream(lines), outputStream);
-            logger.info("生成Excle：{},共{}条数据", destFile.getAbsolutePath(), lines.size());
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(destFile))) {
+                count = generateExcel(outputStream, rows, rowAccessWindowSize);
+            }
+            logger.info("生成Excle：{},共{}条数据", destFile.getAbsolutePath(), count);
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
+        }
+        return count;
+    }
+
+    /**
+     * 流式生成excle，直接写入输出流。输出流需由调用者关闭
+     *
+     * @param out
+     *            输出流
+     * @param rows
+     *            数据
+     * @param rowAccessWindowSize
+     *            内存中保留的行数，超出的行会被写入临时文件
+     * @return 写入的行数
+     */
+    public static long generateExcel(OutputStream out, Iterator<List<String>> rows, int rowAccessWindowSize) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(rowAccessWindowSize);
+        try {
+            long count = writeRows(workbook.createSheet(), 0, rows);
+            workbook.write(out);
+            return count;
         } finally {
-            if (outputStream != null) {
-                try {
-                    outputStream.close();
-                } catch (IOException e) {
-                    logger.error(e.getMessage(), e);
-                }
-            }
+            // 删除SXSSF产生的临时文件
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    /**
+     * 流式生成excle，直接写入输出流。输出流需由调用者关闭，Stream会被关闭
+     *
+     * @param out
+     *            输出流
+     * @param rows
+     *            数据
+     * @return 写入的行数
+     */
+    public static long generateExcel(OutputStream out, Stream<List<String>> rows) throws IOException {
+        try (Stream<List<String>> stream = rows) {
+            return generateExcel(out, stream.iterator(), DEFAULT_ROW_ACCESS_WINDOW_SIZE);
         }
     }
 
@@ -141,32 +259,32 @@ public class ExcelWriter {
     public static InputStream generateExcelInputStream(List<List<String>> lines) {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
-            Workbook workbook = new XSSFWorkbook();
-            Sheet sheet = workbook.createSheet();
-            for (int i = 0; i < lines.size(); i++) {
-                List<String> vRow = lines.get(i);
-                Row row = sheet.createRow(i);
-                for (int j = 0; j < vRow.size(); j++) {
-                    String cValue = vRow.get(j);
-                    row.createCell(j).setCellValue(cValue);
-                }
-            }
-            workbook.write(out);
+            generateExcel(out, lines.iterator(), DEFAULT_ROW_ACCESS_WINDOW_SIZE);
             return new ByteArrayInputStream(out.toByteArray());
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
-        } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    logger.error(e.getMessage(), e);
-                }
-            }
         }
         return null;
     }
 
+    /**
+     * 从startRow开始，逐行写入数据
+     *
+     * @return 写入的行数
+     */
+    private static long writeRows(Sheet sheet, int startRow, Iterator<List<String>> rows) {
+        int rowNum = startRow;
+        while (rows.hasNext()) {
+            List<String> vRow = rows.next();
+            Row row = sheet.createRow(rowNum++);
+            for (int j = 0; j < vRow.size(); j++) {
+                String cValue = vRow.get(j);
+                row.createCell(j).setCellValue(cValue);
+            }
+        }
+        return rowNum - startRow;
+    }
+
     /**
      * 生成csv文件
      *
@@ -176,8 +294,8 @@ public class ExcelWriter {
      *            数据
      */
     public static void generateCsv(File dest, List<List<String>> data) {
-        try {
-            FileUtils.writeLines(dest, "gbk", escapeCsv(data), "\n");
+        try (OutputStream out = FileUtils.openOutputStream(dest)) {
+            generateCsv(out, data.iterator(), CsvReader.DEFAULT_CHARSET);
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
         }
@@ -191,32 +309,85 @@ public class ExcelWriter {
      */
     public static InputStream generateCsvInputStream(List<List<String>> data) {
         try {
-            List<String> rows = escapeCsv(data);
-            return IOUtils.toInputStream(StringUtils.join(rows, "\n"), "gbk");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            generateCsv(out, data.iterator(), CsvReader.DEFAULT_CHARSET);
+            return new ByteArrayInputStream(out.toByteArray());
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
         }
         return null;
     }
 
-    private static List<String> escapeCsv(List<List<String>> lines) {
-        List<String> result = new ArrayList<>();
-        for (List<String> line : lines) {
-            StringBuilder sbLine = new StringBuilder();
+    /**
+     * 流式生成csv，逐行转义并编码写入通道，内存占用与行数无关。通道需由调用者关闭
+     *
+     * @param channel
+     *            输出通道
+     * @param rows
+     *            数据，为null的行会被忽略
+     * @param charset
+     *            编码
+     * @return 写入的行数
+     */
+    public static long generateCsv(WritableByteChannel channel, Iterator<List<String>> rows, Charset charset) throws IOException {
+        return generateCsv(Channels.newOutputStream(channel), rows, charset);
+    }
+
+    /**
+     * 流式生成csv，逐行转义并编码写入输出流，内存占用与行数无关。输出流需由调用者关闭
+     *
+     * @param out
+     *            输出流
+     * @param rows
+     *            数据，为null的行会被忽略
+     * @param charset
+     *            编码
+     * @return 写入的行数
+     */
+    public static long generateCsv(OutputStream out, Iterator<List<String>> rows, Charset charset) throws IOException {
+        long count = 0;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset), CSV_BUFFER_SIZE);
+        StringBuilder sbLine = new StringBuilder(256);
+        while (rows.hasNext()) {
+            List<String> line = rows.next();
             if (line == null) {
                 continue;
             }
+            sbLine.setLength(0);
             for (int i = 0; i < line.size(); i++) {
-                String cell = StringEscapeUtils.escapeCsv(line.get(i));
-                if (i != line.size() - 1) {
-                    sbLine.append(cell).append(",");
-                } else {
-                    sbLine.append(cell);
+                if (i != 0) {
+                    sbLine.append(',');
                 }
+                appendCsvCell(sbLine, line.get(i));
             }
-            result.add(sbLine.toString());
+            sbLine.append('\n');
+            writer.append(sbLine);
+            count++;
         }
-        return result;
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * 转义csv单元格：含有逗号、双引号或换行时，用双引号包裹，并把双引号转义为两个双引号。null视为空字符串
+     */
+    private static void appendCsvCell(StringBuilder sb, String cell) {
+        if (cell == null) {
+            return;
+        }
+        if (StringUtils.containsNone(cell, CSV_SEARCH_CHARS)) {
+            sb.append(cell);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < cell.length(); i++) {
+            char c = cell.charAt(i);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
     }
 
     /**
@@ -248,4 +419,19 @@ public class ExcelWriter {
         return sheet;
     }
 
+    /**
+     * 缓存的模板文件内容
+     */
+    private static class TemplateHolder {
+        private final long lastModified;
+        private final long length;
+        private final byte[] bytes;
+
+        private TemplateHolder(long lastModified, long length, byte[] bytes) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.bytes = bytes;
+        }
+    }
+
 }
@@ -0,0 +1,441 @@
+package org.jujubeframework.util.office;
+
+import org.apache.commons.lang3.Validate;
+import org.jujubeframework.util.Concurrents;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于内存映射的高性能Csv读取器<br>
+ * 通过{@link FileChannel#map}映射文件，按照引号感知的行边界把文件切分为若干区块，各区块可以并行解析。
+ * 字段以{@link CsvRow}视图的形式暴露，只有被读取的列才会解码为String。<br>
+ * 适用于格式规范（RFC 4180，逗号分隔，双引号转义）的大文件，编码需兼容ASCII，如GBK、UTF-8。格式复杂或需要自定义{@code CSVFormat}时，请使用{@link CsvReader}
+ *
+ * @author John Li
+ */
+public class MappedCsvReader implements Iterable<List<String>>, Closeable {
+    /**
+     * 默认区块大小：32M
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 32 * 1024 * 1024;
+    /**
+     * 扫描行边界时每次映射的窗口大小
+     */
+    private static final int SCAN_WINDOW_SIZE = 256 * 1024 * 1024;
+
+    private static final byte COMMA = ',';
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private final File csvFile;
+    private final Charset charset;
+    private final ExcelReaderConfig config;
+    private final FileChannel channel;
+    /**
+     * 各区块的起始位置，最后一个元素为文件长度
+     */
+    private final long[] boundaries;
+    private long rowCount = -1;
+
+    /**
+     * 构造
+     *
+     * @param file
+     *            csv文件
+     * @param charset
+     *            文件编码，需兼容ASCII
+     * @param config
+     *            文件读取的一些配置规则
+     */
+    public MappedCsvReader(File file, Charset charset, ExcelReaderConfig config) {
+        this(file, charset, config, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * 构造
+     *
+     * @param file
+     *            csv文件
+     * @param charset
+     *            文件编码，需兼容ASCII
+     * @param config
+     *            文件读取的一些配置规则
+     * @param chunkSize
+     *            区块大小，并行解析时的最小单位
+     */
+    public MappedCsvReader(File file, Charset charset, ExcelReaderConfig config, int chunkSize) {
+        Validate.notNull(config);
+        Validate.isTrue(file.exists(), "file not exists");
+        Validate.isTrue(chunkSize > 0, "chunkSize must be greater than 0");
+        Validate.isTrue(Arrays.equals(",\"\r\n".getBytes(charset), new byte[] { COMMA, QUOTE, CR, LF }), "charset must be ASCII compatible: %s", charset);
+        this.csvFile = file;
+        this.charset = charset;
+        this.config = config;
+        try {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.boundaries = scanBoundaries(chunkSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 顺序扫描一遍文件，记录引号状态，在每个区块大小之后的第一个引号外的换行处切分
+     */
+    private long[] scanBoundaries(int chunkSize) throws IOException {
+        long size = channel.size();
+        List<Long> list = new ArrayList<>();
+        list.add(bomLength());
+        long nextTarget = list.get(0) + chunkSize;
+        boolean inQuote = false;
+        for (long windowStart = 0; windowStart < size && nextTarget < size; windowStart += SCAN_WINDOW_SIZE) {
+            int windowLength = (int) Math.min(SCAN_WINDOW_SIZE, size - windowStart);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+            for (int i = 0; i < windowLength; i++) {
+                byte b = window.get(i);
+                if (b == QUOTE) {
+                    inQuote = !inQuote;
+                } else if (b == LF && !inQuote && windowStart + i >= nextTarget) {
+                    long boundary = windowStart + i + 1;
+                    if (boundary < size) {
+                        list.add(boundary);
+                    }
+                    nextTarget = boundary + chunkSize;
+                }
+            }
+        }
+        list.add(size);
+        long[] result = new long[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        for (int i = 1; i < result.length; i++) {
+            Validate.validState(result[i] - result[i - 1] <= Integer.MAX_VALUE, "csv record too large at offset %d", result[i - 1]);
+        }
+        return result;
+    }
+
+    /**
+     * UTF-8文件的BOM长度
+     */
+    private long bomLength() throws IOException {
+        if (!"UTF-8".equals(charset.name()) || channel.size() < 3) {
+            return 0;
+        }
+        ByteBuffer head = ByteBuffer.allocate(3);
+        channel.read(head, 0);
+        byte[] bytes = head.array();
+        return bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF ? 3 : 0;
+    }
+
+    /**
+     * 区块数量
+     */
+    public int getChunkCount() {
+        return boundaries.length - 1;
+    }
+
+    /**
+     * 顺序读取每一行
+     *
+     * @param consumer
+     *            行处理器。注意：{@link CsvRow}会被复用，只在回调期间有效，如需保留请调用{@link CsvRow#toList()}
+     */
+    public void forEachRow(RowHandler consumer) {
+        for (int i = 0; i < getChunkCount(); i++) {
+            Tokenizer tokenizer = new Tokenizer(i);
+            while (tokenizer.next()) {
+                consumer.handle(tokenizer.row);
+            }
+        }
+    }
+
+    /**
+     * 并行读取每一行。行的处理顺序不确定
+     *
+     * @param consumer
+     *            行处理器，会被多个线程并发调用。{@link CsvRow}只在回调期间有效
+     * @param parallelism
+     *            并行线程数
+     */
+    public void parallelForEachRow(RowHandler consumer, int parallelism) {
+        Validate.isTrue(parallelism > 0, "parallelism must be greater than 0");
+        int chunkCount = getChunkCount();
+        ExecutorService executor = Concurrents.createThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS, Math.max(chunkCount, 1),
+                "mapped-csv-reader-");
+        try {
+            List<Future<?>> futures = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                int chunkIndex = i;
+                futures.add(executor.submit(() -> {
+                    Tokenizer tokenizer = new Tokenizer(chunkIndex);
+                    while (tokenizer.next()) {
+                        consumer.handle(tokenizer.row);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 获得总行数，会并行解析一遍文件
+     */
+    public long getRowCount() {
+        if (rowCount < 0) {
+            AtomicLong count = new AtomicLong();
+            parallelForEachRow(row -> count.incrementAndGet(), Runtime.getRuntime().availableProcessors());
+            rowCount = count.get();
+        }
+        return rowCount;
+    }
+
+    public File getFile() {
+        return csvFile;
+    }
+
+    @Override
+    public Iterator<List<String>> iterator() {
+        return new Itr();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 行处理器
+     */
+    @FunctionalInterface
+    public interface RowHandler {
+        /**
+         * 处理一行数据
+         */
+        void handle(CsvRow row);
+    }
+
+    /**
+     * Csv行视图。字段在被读取时才解码为String
+     */
+    public final class CsvRow {
+        private final ByteBuffer buffer;
+        private int size;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        /**
+         * 字段中是否含有转义的双引号
+         */
+        private boolean[] escaped = new boolean[16];
+        private byte[] scratch = new byte[256];
+
+        private CsvRow(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * 字段数量
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * 获得某个字段
+         *
+         * @param index
+         *            从0开始
+         */
+        public String get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+            }
+            int length = ends[index] - starts[index];
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            ((Buffer) buffer).position(starts[index]);
+            buffer.get(scratch, 0, length);
+            String value = new String(scratch, 0, length, charset);
+            if (escaped[index]) {
+                value = value.replace("\"\"", "\"");
+            }
+            if (config.isTrimCellContent()) {
+                value = value.trim();
+            }
+            return value;
+        }
+
+        /**
+         * 解码所有字段
+         */
+        public List<String> toList() {
+            List<String> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(get(i));
+            }
+            return list;
+        }
+
+        private void addField(int start, int end, boolean hasEscapedQuote) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                escaped = Arrays.copyOf(escaped, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            escaped[size] = hasEscapedQuote;
+            size++;
+        }
+    }
+
+    /**
+     * 单个区块的分词器
+     */
+    private class Tokenizer {
+        private final ByteBuffer buffer;
+        private final int limit;
+        private final CsvRow row;
+        private int pos;
+
+        private Tokenizer(int chunkIndex) {
+            long start = boundaries[chunkIndex];
+            int length = (int) (boundaries[chunkIndex + 1] - start);
+            try {
+                this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.limit = length;
+            this.row = new CsvRow(buffer.duplicate());
+        }
+
+        /**
+         * 解析下一行
+         *
+         * @return 没有更多行时返回false
+         */
+        private boolean next() {
+            // 跳过空行
+            while (pos < limit) {
+                byte b = buffer.get(pos);
+                if (b == LF) {
+                    pos++;
+                } else if (b == CR && pos + 1 < limit && buffer.get(pos + 1) == LF) {
+                    pos += 2;
+                } else {
+                    break;
+                }
+            }
+            if (pos >= limit) {
+                return false;
+            }
+            row.size = 0;
+            while (true) {
+                int fieldStart = pos;
+                int fieldEnd;
+                boolean hasEscapedQuote = false;
+                if (pos < limit && buffer.get(pos) == QUOTE) {
+                    fieldStart = ++pos;
+                    fieldEnd = limit;
+                    while (pos < limit) {
+                        if (buffer.get(pos) == QUOTE) {
+                            if (pos + 1 < limit && buffer.get(pos + 1) == QUOTE) {
+                                hasEscapedQuote = true;
+                                pos += 2;
+                                continue;
+                            }
+                            fieldEnd = pos++;
+                            break;
+                        }
+                        pos++;
+                    }
+                    // 跳过结束引号与分隔符之间的字符
+                    while (pos < limit && buffer.get(pos) != COMMA && buffer.get(pos) != LF) {
+                        pos++;
+                    }
+                } else {
+                    while (pos < limit && buffer.get(pos) != COMMA && buffer.get(pos) != LF) {
+                        pos++;
+                    }
+                    fieldEnd = pos;
+                    if (fieldEnd > fieldStart && buffer.get(fieldEnd - 1) == CR) {
+                        fieldEnd--;
+                    }
+                }
+                row.addField(fieldStart, fieldEnd, hasEscapedQuote);
+                if (pos >= limit) {
+                    return true;
+                }
+                if (buffer.get(pos++) == LF) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private class Itr implements Iterator<List<String>> {
+        private int chunkIndex;
+        private Tokenizer tokenizer;
+        private List<String> nextRow;
+
+        @Override
+        public boolean hasNext() {
+            while (nextRow == null) {
+                if (tokenizer == null) {
+                    if (chunkIndex >= getChunkCount()) {
+                        return false;
+                    }
+                    tokenizer = new Tokenizer(chunkIndex++);
+                }
+                if (tokenizer.next()) {
+                    nextRow = tokenizer.row.toList();
+                } else {
+                    tokenizer = null;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public List<String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            List<String> result = nextRow;
+            nextRow = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new RuntimeException("not execute remove");
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.jujubeframework.util.office;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.Validate;
+import org.jujubeframework.util.Concurrents;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 批量根据html生成PDF<br>
+ * 使用固定数量的工作线程并行渲染，每个工作线程在整个批次中复用同一个渲染器。任务从Stream中按需拉取，不会一次性加载到内存。
+ * 单个任务失败不影响其他任务，失败原因记录在对应的{@link JobResult}中。拉取任务时Stream抛出异常，则记录为一个失败的结果（id为null），并不再拉取后续任务
+ *
+ * @author John Li
+ */
+@Slf4j
+public class PdfBatchRenderer {
+
+    private final int parallelism;
+
+    /**
+     * 构造，并行度为cpu核数
+     */
+    public PdfBatchRenderer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 构造
+     *
+     * @param parallelism
+     *            并行度，即工作线程数
+     */
+    public PdfBatchRenderer(int parallelism) {
+        Validate.isTrue(parallelism > 0, "parallelism must be greater than 0");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 批量渲染
+     *
+     * @param jobs
+     *            渲染任务，渲染结束后Stream会被关闭
+     * @return 渲染报告，其中的任务结果与任务的顺序一致
+     */
+    public BatchReport render(Stream<Job> jobs) {
+        long begin = System.nanoTime();
+        List<JobResult> results = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Concurrents.createThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS, parallelism, "pdf-batch-renderer-");
+        try (Stream<Job> stream = jobs) {
+            Iterator<Job> iterator = stream.iterator();
+            int[] nextIndex = new int[1];
+            // 拉取任务时Stream出错，不再拉取后续任务
+            boolean[] exhausted = new boolean[1];
+            for (int i = 0; i < parallelism; i++) {
+                executor.execute(() -> {
+                    ITextRenderer render = null;
+                    try {
+                        while (true) {
+                            Job job;
+                            int index;
+                            synchronized (iterator) {
+                                if (exhausted[0]) {
+                                    break;
+                                }
+                                index = nextIndex[0];
+                                try {
+                                    if (!iterator.hasNext()) {
+                                        exhausted[0] = true;
+                                        break;
+                                    }
+                                    job = iterator.next();
+                                } catch (Exception e) {
+                                    exhausted[0] = true;
+                                    log.error("pdf batch job stream failed at index {}", index, e);
+                                    JobResult result = new JobResult();
+                                    result.setIndex(index);
+                                    result.setError(e);
+                                    results.add(result);
+                                    break;
+                                }
+                                nextIndex[0]++;
+                            }
+                            JobResult result = new JobResult();
+                            result.setIndex(index);
+                            long jobBegin = System.nanoTime();
+                            try {
+                                Validate.notNull(job, "job must not be null");
+                                result.setId(job.getId());
+                                Validate.notNull(job.getSink(), "sink must not be null");
+                                try (OutputStream outputStream = job.getSink().open()) {
+                                    Validate.notNull(outputStream, "sink opened a null stream");
+                                    if (render == null) {
+                                        render = PdfWriters.borrowRenderer();
+                                    }
+                                    try {
+                                        PdfWriters.render(render, job.getHtml(), outputStream);
+                                    } catch (Exception e) {
+                                        // 渲染出错的渲染器状态不确定，下一个任务换一个新的；输出流出错则不影响渲染器
+                                        render = null;
+                                        throw e;
+                                    }
+                                }
+                            } catch (Exception e) {
+                                result.setError(e);
+                            }
+                            // 输出流关闭成功后才算成功
+                            result.setSuccess(result.getError() == null);
+                            result.setLatencyNanos(System.nanoTime() - jobBegin);
+                            results.add(result);
+                        }
+                    } finally {
+                        if (render != null) {
+                            PdfWriters.returnRenderer(render);
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        BatchReport report = new BatchReport();
+        List<JobResult> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingInt(JobResult::getIndex));
+        report.setResults(sorted);
+        report.setElapsedNanos(System.nanoTime() - begin);
+        log.info("pdf batch rendered: {} docs, {} failed, {} docs/s", sorted.size(), report.getFailures().size(), String.format("%.2f", report.getThroughput()));
+        return report;
+    }
+
+    /**
+     * PDF的输出目标，渲染时才会打开，渲染结束后关闭
+     */
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * 打开输出流
+         */
+        OutputStream open() throws IOException;
+    }
+
+    /**
+     * 渲染任务
+     */
+    @Data
+    public static class Job {
+        /** 任务标识，原样返回到结果中 */
+        private final String id;
+        /** html内容 */
+        private final String html;
+        /** 输出目标 */
+        private final Sink sink;
+    }
+
+    /**
+     * 单个任务的渲染结果
+     */
+    @Data
+    public static class JobResult {
+        /** 任务在批次中的序号，从0开始 */
+        private int index;
+        /** 任务标识 */
+        private String id;
+        private boolean success;
+        /** 失败原因 */
+        private Throwable error;
+        /** 渲染耗时（纳秒），包含写入输出流的时间 */
+        private long latencyNanos;
+    }
+
+    /**
+     * 批次渲染报告
+     */
+    @Data
+    public static class BatchReport {
+        private List<JobResult> results;
+        /** 总耗时（纳秒） */
+        private long elapsedNanos;
+
+        /**
+         * 失败的任务
+         */
+        public List<JobResult> getFailures() {
+            return results.stream().filter(result -> !result.isSuccess()).collect(Collectors.toList());
+        }
+
+        /**
+         * 吞吐量，每秒渲染的文档数
+         */
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : results.size() * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * 平均耗时（纳秒）
+         */
+        public long getAverageLatencyNanos() {
+            return results.isEmpty() ? 0 : (long) results.stream().mapToLong(JobResult::getLatencyNanos).average().orElse(0);
+        }
+    }
+}
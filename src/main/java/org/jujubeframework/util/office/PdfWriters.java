@@ -7,30 +7,40 @@ import org.xhtmlrenderer.pdf.ITextRenderer;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * PDF写入工具类 <br>
- * 根据html生产PDF的时候，需要把typeface/msyh.ttf字体文杰放在项目的classpath下
+ * 根据html生产PDF的时候，需要把typeface/msyh.ttf字体文杰放在项目的classpath下，否则中文无法显示<br>
+ * 加载中文字体的开销很大，所以渲染器创建后会放入池中复用，每个渲染器只加载一次字体。可以在应用启动时调用{@link #warmUp(int)}预热
  *
  * @author ZhaoYanqi
  */
 @Slf4j
 public class PdfWriters {
 
+    public static final String FONT_PATH = "typeface/MicrosoftYaHei.ttf";
+    /**
+     * 归还渲染器前设置的空文档，释放上一个文档及其资源
+     */
+    private static final String EMPTY_DOCUMENT = "<html><body></body></html>";
+    /**
+     * 空闲渲染器池，容量为cpu核数。池满时归还的渲染器会被丢弃
+     */
+    private static final BlockingQueue<ITextRenderer> RENDERER_POOL = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
     /**
      * 根据html内容生成PDF文件流（支持CSS） <br>
      * 注意：需要把typeface/MicrosoftYaHei.ttf字体文杰放在项目的classpath下
      */
     public static InputStream createPdfFromHtml(String html) {
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        ITextRenderer render = new ITextRenderer();
-        ITextFontResolver fontResolver = render.getFontResolver();
         try {
-            fontResolver.addFont("typeface/MicrosoftYaHei.ttf", BaseFont.IDENTITY_H, BaseFont.NOT_EMBEDDED);
-            render.setDocumentFromString(html);
-            render.layout();
-            render.createPDF(outputStream);
+            createPdfFromHtml(html, outputStream);
             return new ByteArrayInputStream(outputStream.toByteArray());
         } catch (Exception e) {
             log.error("写入PDF出错", e);
@@ -38,4 +48,80 @@ public class PdfWriters {
         return null;
     }
 
+    /**
+     * 根据html内容生成PDF，直接写入输出流（支持CSS）。输出流需由调用者关闭 <br>
+     * 注意：需要把typeface/MicrosoftYaHei.ttf字体文杰放在项目的classpath下
+     *
+     * @throws RuntimeException
+     *             生成PDF出错时
+     */
+    public static void createPdfFromHtml(String html, OutputStream outputStream) {
+        ITextRenderer render = borrowRenderer();
+        try {
+            render(render, html, outputStream);
+        } catch (Exception e) {
+            // 出错的渲染器状态不确定，不再归还到池中
+            throw new RuntimeException("写入PDF出错", e);
+        }
+        returnRenderer(render);
+    }
+
+    /**
+     * 使用指定的渲染器生成PDF
+     */
+    static void render(ITextRenderer render, String html, OutputStream outputStream) throws Exception {
+        render.setDocumentFromString(html);
+        render.layout();
+        render.createPDF(outputStream);
+    }
+
+    /**
+     * 预热渲染器池，提前加载字体
+     *
+     * @param count
+     *            预先创建的渲染器数量，不会超过池的容量
+     */
+    public static void warmUp(int count) {
+        for (int i = 0; i < count && RENDERER_POOL.remainingCapacity() > 0; i++) {
+            returnRenderer(createRenderer());
+        }
+    }
+
+    /**
+     * 从池中获得渲染器，池为空时新建
+     */
+    static ITextRenderer borrowRenderer() {
+        ITextRenderer render = RENDERER_POOL.poll();
+        return render != null ? render : createRenderer();
+    }
+
+    /**
+     * 归还渲染器。渲染器会一直持有最后渲染的文档及其布局，所以归还前先换成空文档，池中空闲的渲染器不再占用这些内存
+     */
+    static void returnRenderer(ITextRenderer render) {
+        try {
+            render.setDocumentFromString(EMPTY_DOCUMENT);
+            render.layout();
+        } catch (Exception e) {
+            log.warn("重置PDF渲染器出错，不再归还到池中", e);
+            return;
+        }
+        RENDERER_POOL.offer(render);
+    }
+
+    private static ITextRenderer createRenderer() {
+        ITextRenderer render = new ITextRenderer();
+        if (PdfWriters.class.getClassLoader().getResource(FONT_PATH) == null && !new File(FONT_PATH).exists()) {
+            log.warn("字体文件{}不存在，PDF中的中文将无法显示", FONT_PATH);
+            return render;
+        }
+        ITextFontResolver fontResolver = render.getFontResolver();
+        try {
+            fontResolver.addFont(FONT_PATH, BaseFont.IDENTITY_H, BaseFont.NOT_EMBEDDED);
+        } catch (Exception e) {
+            throw new RuntimeException("加载字体出错：" + FONT_PATH, e);
+        }
+        return render;
+    }
+
 }
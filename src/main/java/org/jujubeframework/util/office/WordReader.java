@@ -2,18 +2,24 @@ package org.jujubeframework.util.office;
 
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.poi.hwpf.HWPFDocument;
 import org.apache.poi.hwpf.extractor.WordExtractor;
+import org.apache.poi.hwpf.usermodel.Range;
 import org.apache.poi.xwpf.extractor.XWPFWordExtractor;
-import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.*;
+import java.util.function.Consumer;
 
 /**
- * word读取工具
- * 
+ * word读取工具<br>
+ * 根据文件头的魔数判断是word2003（OLE2）还是word2007（OOXML）格式，每个文件只解析一次
+ *
  * @author John Li
  */
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
@@ -21,6 +27,27 @@ public class WordReader {
 
     private static final Logger logger = LoggerFactory.getLogger(WordReader.class);
 
+    /**
+     * OLE2文件头，word2003版本
+     */
+    private static final byte[] OLE2_MAGIC = { (byte) 0xD0, (byte) 0xCF, (byte) 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, (byte) 0x1A, (byte) 0xE1 };
+    /**
+     * zip文件头，word2007版本
+     */
+    private static final byte[] OOXML_MAGIC = { 'P', 'K', 3, 4 };
+
+    /**
+     * word文件格式
+     */
+    public enum WordFormat {
+        /** word2003版本 */
+        DOC,
+        /** word2007版本 */
+        DOCX,
+        /** 无法识别 */
+        UNKNOWN
+    }
+
     /**
      * 获得word内容
      */
@@ -28,19 +55,126 @@ public class WordReader {
         String result = "";
         File wordFile = new File(filePath);
         if (wordFile.exists()) {
-            // word2003版本
-            try (WordExtractor wordExtractor = new WordExtractor(new FileInputStream(wordFile))) {
-                result = wordExtractor.getText();
-            } catch (Exception e) {
-                // word2007版本
-                try (XWPFWordExtractor xwpfWordExtractor = new XWPFWordExtractor(new XWPFDocument(new FileInputStream(wordFile)))) {
-                    result = xwpfWordExtractor.getText();
-                } catch (Exception e1) {
-                    logger.error("getWordContent", e1);
+            try (InputStream inputStream = new BufferedInputStream(new FileInputStream(wordFile))) {
+                switch (detectFormat(inputStream)) {
+                case DOC:
+                    try (WordExtractor wordExtractor = new WordExtractor(inputStream)) {
+                        result = wordExtractor.getText();
+                    }
+                    break;
+                case DOCX:
+                    try (XWPFWordExtractor xwpfWordExtractor = new XWPFWordExtractor(new XWPFDocument(inputStream))) {
+                        result = xwpfWordExtractor.getText();
+                    }
+                    break;
+                default:
+                    logger.warn("getWordContent: unknown word format {}", filePath);
+                    break;
                 }
+            } catch (Exception e) {
+                logger.error("getWordContent", e);
             }
         }
         return result;
     }
 
+    /**
+     * 逐段读取word内容，不会把整个文档的文本拼接为一个字符串。表格的每一行作为一段，单元格之间以tab分隔
+     *
+     * @param filePath
+     *            word文件路径
+     * @param paragraphConsumer
+     *            段落处理器
+     */
+    public static void readParagraphs(String filePath, Consumer<String> paragraphConsumer) throws IOException {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(filePath))) {
+            WordFormat format = detectFormat(inputStream);
+            switch (format) {
+            case DOC:
+                try (HWPFDocument document = new HWPFDocument(inputStream)) {
+                    Range range = document.getRange();
+                    for (int i = 0; i < range.numParagraphs(); i++) {
+                        paragraphConsumer.accept(StringUtils.stripEnd(Range.stripFields(range.getParagraph(i).text()), "\r\n\u0007"));
+                    }
+                }
+                break;
+            case DOCX:
+                try (XWPFDocument document = new XWPFDocument(inputStream)) {
+                    for (IBodyElement element : document.getBodyElements()) {
+                        if (element instanceof XWPFParagraph) {
+                            paragraphConsumer.accept(((XWPFParagraph) element).getText());
+                        } else if (element instanceof XWPFTable) {
+                            for (XWPFTableRow row : ((XWPFTable) element).getRows()) {
+                                StringBuilder sb = new StringBuilder();
+                                for (XWPFTableCell cell : row.getTableCells()) {
+                                    if (sb.length() > 0) {
+                                        sb.append('\t');
+                                    }
+                                    sb.append(cell.getText());
+                                }
+                                paragraphConsumer.accept(sb.toString());
+                            }
+                        }
+                    }
+                }
+                break;
+            default:
+                throw new IOException("unknown word format: " + filePath);
+            }
+        }
+    }
+
+    /**
+     * 把word内容逐段写入Writer，每段以换行结束。Writer需由调用者关闭
+     */
+    public static void writeWordContent(String filePath, Writer writer) throws IOException {
+        try {
+            readParagraphs(filePath, paragraph -> {
+                try {
+                    writer.write(paragraph);
+                    writer.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
+    /**
+     * 根据文件头判断word格式。输入流需支持mark，读取后会重置到文件开头
+     */
+    public static WordFormat detectFormat(InputStream inputStream) throws IOException {
+        Validate.isTrue(inputStream.markSupported(), "inputStream must support mark");
+        byte[] header = new byte[OLE2_MAGIC.length];
+        inputStream.mark(header.length);
+        int len;
+        try {
+            len = IOUtils.read(inputStream, header);
+        } finally {
+            inputStream.reset();
+        }
+        if (startsWith(header, len, OLE2_MAGIC)) {
+            return WordFormat.DOC;
+        }
+        if (startsWith(header, len, OOXML_MAGIC)) {
+            return WordFormat.DOCX;
+        }
+        return WordFormat.UNKNOWN;
+    }
+
+    private static boolean startsWith(byte[] header, int len, byte[] magic) {
+        if (len < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (header[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 }
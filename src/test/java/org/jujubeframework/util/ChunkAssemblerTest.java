@@ -0,0 +1,54 @@
+package org.jujubeframework.util;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class ChunkAssemblerTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void writeOutOfOrder() throws IOException {
+        byte[] data = new byte[25];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        File dest = new File(tempDir, "dest.bin");
+        try (ChunkAssembler assembler = new ChunkAssembler(dest, data.length, 10)) {
+            Assertions.assertThat(assembler.getChunkCount()).isEqualTo(3);
+            Assertions.assertThat(assembler.write(2, new ByteArrayInputStream(Arrays.copyOfRange(data, 20, 25)))).isFalse();
+            Assertions.assertThat(assembler.write(0, new ByteArrayInputStream(Arrays.copyOfRange(data, 0, 10)))).isFalse();
+            // 重复的分片不影响进度
+            Assertions.assertThat(assembler.write(0, new ByteArrayInputStream(Arrays.copyOfRange(data, 0, 10)))).isFalse();
+            Assertions.assertThatThrownBy(() -> assembler.write(1, new ByteArrayInputStream(new byte[3]))).isInstanceOf(IOException.class);
+            Assertions.assertThat(assembler.isReceived(1)).isFalse();
+            Assertions.assertThat(dest).doesNotExist();
+
+            Assertions.assertThat(assembler.write(1, new ByteArrayInputStream(Arrays.copyOfRange(data, 10, 20)))).isTrue();
+        }
+        Assertions.assertThat(dest).hasBinaryContent(data);
+        Assertions.assertThat(new File(dest.getPath() + ChunkAssembler.PART_SUFFIX)).doesNotExist();
+    }
+
+    @Test
+    public void retryReceivedChunk() throws IOException {
+        byte[] data = new byte[20];
+        Arrays.fill(data, (byte) 7);
+        File dest = new File(tempDir, "retry.bin");
+        try (ChunkAssembler assembler = new ChunkAssembler(dest, data.length, 10)) {
+            Assertions.assertThat(assembler.write(0, new ByteArrayInputStream(Arrays.copyOfRange(data, 0, 10)))).isFalse();
+            // 已经收到的分片不会被截断或损坏的重试覆盖
+            Assertions.assertThat(assembler.write(0, new ByteArrayInputStream(new byte[3]))).isFalse();
+            Assertions.assertThat(assembler.write(1, new ByteArrayInputStream(Arrays.copyOfRange(data, 10, 20)))).isTrue();
+            Assertions.assertThat(assembler.write(1, new ByteArrayInputStream(new byte[3]))).isTrue();
+        }
+        Assertions.assertThat(dest).hasBinaryContent(data);
+    }
+}
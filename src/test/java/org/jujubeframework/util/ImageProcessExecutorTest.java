@@ -0,0 +1,128 @@
+package org.jujubeframework.util;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class ImageProcessExecutorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private File createImage(int width, int height) throws IOException {
+        File file = tempDir.resolve(width + "x" + height + ".png").toFile();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", file);
+        return file;
+    }
+
+    @Test
+    public void estimateDecodedBytes() throws IOException {
+        File image = createImage(100, 100);
+        Assertions.assertThat(Images.estimateDecodedBytes(image, 0, 0)).isEqualTo(100 * 100 * 8);
+        Assertions.assertThat(Images.estimateDecodedBytes(image, 50, 50)).isEqualTo(50 * 50 * 8);
+    }
+
+    @Test
+    public void estimateDecodedBytesOfWebp() throws IOException {
+        // webp没有ImageIO的读取器，从文件头中读取尺寸：无损格式中宽高减1各占14位
+        int bits = (100 - 1) | (100 - 1) << 14;
+        File lossless = createWebp("lossless.webp", "VP8L", new byte[] { 0x2f, (byte) bits, (byte) (bits >>> 8), (byte) (bits >>> 16), (byte) (bits >>> 24) });
+        Assertions.assertThat(Images.estimateDecodedBytes(lossless, 0, 0)).isEqualTo(100 * 100 * 8);
+        Assertions.assertThat(Images.estimateDecodedBytes(lossless, 50, 50)).isEqualTo(50 * 50 * 8);
+        // 扩展格式中画布宽高减1各占24位
+        File extended = createWebp("extended.webp", "VP8X", new byte[] { 0, 0, 0, 0, 99, 0, 0, 99, 0, 0 });
+        Assertions.assertThat(Images.estimateDecodedBytes(extended, 0, 0)).isEqualTo(100 * 100 * 8);
+        // 有损格式中帧标记、起始码之后宽高各占14位
+        File lossy = createWebp("lossy.webp", "VP8 ", new byte[] { 0, 0, 0, (byte) 0x9d, 0x01, 0x2a, 100, 0, 100, 0 });
+        Assertions.assertThat(Images.estimateDecodedBytes(lossy, 0, 0)).isEqualTo(100 * 100 * 8);
+    }
+
+    private File createWebp(String name, String chunk, byte[] payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("RIFF".getBytes(StandardCharsets.US_ASCII));
+        out.write(new byte[4]);
+        out.write("WEBP".getBytes(StandardCharsets.US_ASCII));
+        out.write(chunk.getBytes(StandardCharsets.US_ASCII));
+        out.write(new byte[4]);
+        out.write(payload);
+        // 补足读取尺寸需要的文件头长度
+        out.write(new byte[10]);
+        File file = tempDir.resolve(name).toFile();
+        Files.write(file.toPath(), out.toByteArray());
+        return file;
+    }
+
+    @Test
+    public void rejectAndTimeout() throws Exception {
+        File image = createImage(100, 100);
+        CountDownLatch latch = new CountDownLatch(1);
+        // 额度只够一张图片
+        ImageProcessExecutor executor = new ImageProcessExecutor(2, 100_000, 1);
+        Future<String> future = executor.submit(image, 0, 0, () -> {
+            latch.await();
+            return "done";
+        }, 1, TimeUnit.SECONDS);
+
+        Assertions.assertThatThrownBy(() -> executor.submit(image, 0, 0, () -> "timeout", 50, TimeUnit.MILLISECONDS)).isInstanceOf(TimeoutException.class);
+
+        ImageProcessExecutor noWaitingExecutor = new ImageProcessExecutor(2, 100_000, 0);
+        CountDownLatch noWaitingLatch = new CountDownLatch(1);
+        noWaitingExecutor.submit(image, 0, 0, () -> {
+            noWaitingLatch.await();
+            return null;
+        }, 1, TimeUnit.SECONDS);
+        Assertions.assertThatThrownBy(() -> noWaitingExecutor.submit(image, 0, 0, () -> null, 1, TimeUnit.SECONDS))
+                .isInstanceOf(RejectedExecutionException.class);
+        noWaitingLatch.countDown();
+        noWaitingExecutor.shutdown();
+        Assertions.assertThat(noWaitingExecutor.awaitTermination(1, TimeUnit.SECONDS)).isTrue();
+        Assertions.assertThat(noWaitingExecutor.getMetrics().getRejected()).isEqualTo(1);
+
+        Assertions.assertThat(executor.getMetrics().getUsedMemoryBytes()).isGreaterThanOrEqualTo(80_000);
+        latch.countDown();
+        Assertions.assertThat(future.get()).isEqualTo("done");
+        executor.shutdown();
+        Assertions.assertThat(executor.awaitTermination(1, TimeUnit.SECONDS)).isTrue();
+
+        ImageProcessExecutor.Metrics metrics = executor.getMetrics();
+        Assertions.assertThat(metrics.getCompleted()).isEqualTo(1);
+        Assertions.assertThat(metrics.getTimeout()).isEqualTo(1);
+        Assertions.assertThat(metrics.getUsedMemoryBytes()).isZero();
+        Assertions.assertThat(metrics.getQueueDepth()).isZero();
+    }
+
+    @Test
+    public void burstOfSmallImages() throws Exception {
+        File image = createImage(10, 10);
+        // 额度足够所有小图片同时获得，任务数远超线程数与等待数之和，提交也不能被拒绝
+        ImageProcessExecutor executor = new ImageProcessExecutor(1, 100_000_000, 0);
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int n = i;
+            futures.add(executor.submit(image, 0, 0, () -> {
+                latch.await();
+                return n;
+            }, 1, TimeUnit.SECONDS));
+        }
+        Assertions.assertThat(executor.getMetrics().getQueued()).isGreaterThanOrEqualTo(49);
+        latch.countDown();
+        for (int i = 0; i < futures.size(); i++) {
+            Assertions.assertThat(futures.get(i).get()).isEqualTo(i);
+        }
+        executor.shutdown();
+        Assertions.assertThat(executor.getMetrics().getRejected()).isZero();
+    }
+}
@@ -5,12 +5,18 @@ import com.drew.imaging.ImageProcessingException;
 import com.drew.metadata.Directory;
 import com.drew.metadata.Metadata;
 import com.drew.metadata.Tag;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import org.apache.commons.io.FileUtils;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.core.io.Resource;
 import org.springframework.util.StopWatch;
 
+import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -55,6 +61,104 @@ public class ImagesTest {
         Assertions.assertThat(Images.isImage(resource.getFile())).isFalse();
     }
 
+    @Test
+    public void transformByOrientation() {
+        BufferedImage image = new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0xff0000);
+        // 6：顺时针旋转90度，左上角的像素移动到右上角
+        BufferedImage rotated = Images.transformByOrientation(image, 6);
+        Assertions.assertThat(rotated.getWidth()).isEqualTo(2);
+        Assertions.assertThat(rotated.getHeight()).isEqualTo(3);
+        Assertions.assertThat(rotated.getRGB(1, 0) & 0xffffff).isEqualTo(0xff0000);
+        // 2：水平镜像
+        Assertions.assertThat(Images.transformByOrientation(image, 2).getRGB(2, 0) & 0xffffff).isEqualTo(0xff0000);
+        Assertions.assertThat(Images.transformByOrientation(image, 1)).isSameAs(image);
+    }
+
+    @Test
+    public void getAppliedOrientation() {
+        Assertions.assertThat(Images.getAppliedOrientation(null)).isEqualTo(1);
+        ExifIFD0Directory directory = new ExifIFD0Directory();
+        directory.setInt(ExifIFD0Directory.TAG_ORIENTATION, 6);
+        Assertions.assertThat(Images.getAppliedOrientation(directory)).isEqualTo(6);
+        // 佳能的旋转类方向不处理，解码时宽高限制也不能互换
+        directory.setString(ExifIFD0Directory.TAG_MAKE, "Canon");
+        Assertions.assertThat(Images.getAppliedOrientation(directory)).isEqualTo(1);
+        directory.setInt(ExifIFD0Directory.TAG_ORIENTATION, 5);
+        Assertions.assertThat(Images.getAppliedOrientation(directory)).isEqualTo(5);
+    }
+
+    @Test
+    public void transformKeepSourceFile(@TempDir File tempDir) throws IOException {
+        File source = Resources.getClassPathResources("material/true.png").getFile();
+        byte[] before = FileUtils.readFileToByteArray(source);
+        File dest = new File(tempDir, "dest.png");
+        Images.transform(source, dest, 10, 10, null);
+        Assertions.assertThat(FileUtils.readFileToByteArray(source)).isEqualTo(before);
+        BufferedImage result = ImageIO.read(dest);
+        Assertions.assertThat(Math.max(result.getWidth(), result.getHeight())).isLessThanOrEqualTo(10);
+    }
+
+    @Test
+    public void subsampling() {
+        Assertions.assertThat(Images.subsampling(6000, 4000, 800, 800)).isEqualTo(7);
+        Assertions.assertThat(Images.subsampling(4000, 6000, 800, 600)).isEqualTo(10);
+        Assertions.assertThat(Images.subsampling(100, 100, 800, 800)).isEqualTo(1);
+    }
+
+    @Test
+    public void getScaledWatermark() throws IOException {
+        BufferedImage watermark = new BufferedImage(200, 100, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage scaled = Images.getScaledWatermark(watermark, 800);
+        Assertions.assertThat(scaled.getWidth()).isEqualTo(100);
+        Assertions.assertThat(scaled.getType()).isEqualTo(BufferedImage.TYPE_INT_ARGB_PRE);
+        // 同一个宽度桶内复用
+        Assertions.assertThat(Images.getScaledWatermark(watermark, 790)).isSameAs(scaled);
+        Assertions.assertThat(Images.getScaledWatermark(watermark, 1600)).isNotSameAs(scaled);
+        Assertions.assertThat(Images.getScaledWatermark(new BufferedImage(200, 100, BufferedImage.TYPE_INT_ARGB), 800)).isNotSameAs(scaled);
+    }
+
+    @Test
+    public void probe(@TempDir File tempDir) throws IOException {
+        BufferedImage image = new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", outputStream);
+        Images.ImageInfo info = Images.probe(new ByteArrayInputStream(outputStream.toByteArray()));
+        Assertions.assertThat(info).isNotNull();
+        Assertions.assertThat(info.getFormat()).isEqualTo("PNG");
+        Assertions.assertThat(info.getWidth()).isEqualTo(30);
+        Assertions.assertThat(info.getHeight()).isEqualTo(20);
+        Assertions.assertThat(info.getOrientation()).isEqualTo(1);
+        Assertions.assertThat(info.isCmyk()).isFalse();
+
+        Assertions.assertThat(Images.probe(new ByteArrayInputStream("not an image".getBytes()))).isNull();
+
+        File file = new File(tempDir, "probe.png");
+        FileUtils.writeByteArrayToFile(file, outputStream.toByteArray());
+        Assertions.assertThat(Images.getFileType(file)).isEqualTo("PNG");
+    }
+
+    @Test
+    public void changeAlpha() {
+        BufferedImage image = new BufferedImage(3, 1, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, 0xFF112233);
+        image.setRGB(1, 0, 0x80445566);
+        image.setRGB(2, 0, 0x00778899);
+        BufferedImage result = Images.changeAlpha(image, 5);
+        Assertions.assertThat(result.getRGB(0, 0)).isEqualTo(0x7F112233);
+        Assertions.assertThat(result.getRGB(1, 0)).isEqualTo(0x40445566);
+        Assertions.assertThat(result.getRGB(2, 0) >>> 24).isZero();
+        // 源图片不变
+        Assertions.assertThat(image.getRGB(0, 0)).isEqualTo(0xFF112233);
+        Assertions.assertThat(Images.changeAlpha(image, 10).getRGB(1, 0)).isEqualTo(0x80445566);
+
+        // 大图并行处理
+        BufferedImage large = new BufferedImage(2000, 1000, BufferedImage.TYPE_INT_RGB);
+        BufferedImage largeResult = Images.changeAlpha(large, 0);
+        Assertions.assertThat(largeResult.getRGB(0, 0) >>> 24).isZero();
+        Assertions.assertThat(largeResult.getRGB(1999, 999) >>> 24).isZero();
+    }
+
     public static void main(String[] args) throws IOException, ImageProcessingException {
         test4();
     }
@@ -1,10 +1,20 @@
 package org.jujubeframework.util;
 
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import org.apache.commons.io.IOUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 
 class QrCodesTest {
     public static void main(String[] args) throws IOException {
@@ -16,4 +26,33 @@ class QrCodesTest {
                 ImageIO.read(new File("d:/data/logo-69.png")), false);
         ImageIO.write(bufferedImage, "png", new FileOutputStream("d:/data/qr-1.png"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void encode() throws Exception {
+        QrCodes.MatrixKey key = new QrCodes.MatrixKey("https://example.com/ticket?id=1", 203, 203, ErrorCorrectionLevel.L);
+        BitMatrix bitMatrix = QrCodes.encodeMatrix(key);
+        Assertions.assertThat(QrCodes.encodeMatrix(key)).isSameAs(bitMatrix);
+
+        BufferedImage expected = MatrixToImageWriter.toBufferedImage(bitMatrix);
+        // encode与MatrixToImageWriter生成的图片一致
+        Assertions.assertThat(QrCodes.encode("https://example.com/ticket?id=1", 203, 203).getType()).isEqualTo(expected.getType());
+        BufferedImage image = QrCodes.encodeToBinaryImage("https://example.com/ticket?id=1", 203, 203);
+        Assertions.assertThat(image.getType()).isEqualTo(BufferedImage.TYPE_BYTE_BINARY);
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                Assertions.assertThat(image.getRGB(x, y)).isEqualTo(expected.getRGB(x, y));
+            }
+        }
+
+        byte[] png = QrCodes.encodeToPng("https://example.com/ticket?id=1", 203, 203);
+        Assertions.assertThat(QrCodes.encodeToPng("https://example.com/ticket?id=1", 203, 203)).isEqualTo(png);
+        Assertions.assertThat(ImageIO.read(new ByteArrayInputStream(png)).getWidth()).isEqualTo(203);
+
+        // encodeToInputStream仍然生成JPG
+        try (InputStream in = QrCodes.encodeToInputStream("https://example.com/ticket?id=1", 203, 203)) {
+            byte[] jpg = IOUtils.toByteArray(in);
+            Assertions.assertThat(Arrays.copyOf(jpg, 2)).containsExactly(0xFF, 0xD8);
+            Assertions.assertThat(ImageIO.read(new ByteArrayInputStream(jpg)).getWidth()).isEqualTo(203);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.jujubeframework.util;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class UploadSessionManagerTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void resumeAndDedupe() throws IOException {
+        byte[] data = new byte[25];
+        new Random(1).nextBytes(data);
+        String fileMd5 = DigestUtils.md5Hex(data);
+        byte[] chunk0 = Arrays.copyOfRange(data, 0, 10);
+        byte[] chunk1 = Arrays.copyOfRange(data, 10, 20);
+        byte[] chunk2 = Arrays.copyOfRange(data, 20, 25);
+
+        UploadSessionManager manager = new UploadSessionManager(tempDir);
+        UploadSessionManager.UploadSession session = manager.open("a.bin", data.length, 10, fileMd5);
+        String sessionId = session.getSessionId();
+        Assertions.assertThat(manager.getMissingChunks(sessionId)).containsExactly(0, 1, 2);
+
+        manager.uploadChunk(sessionId, 2, new ByteArrayInputStream(chunk2), null, DigestUtils.md5Hex(chunk2));
+        // 校验不通过的分片不记为已收到
+        Assertions.assertThatThrownBy(() -> manager.uploadChunk(sessionId, 0, new ByteArrayInputStream(chunk1), null, DigestUtils.md5Hex(chunk0)))
+                .isInstanceOf(UploadSessionManager.ChecksumMismatchException.class);
+        Assertions.assertThat(manager.getMissingChunks(sessionId)).containsExactly(0, 1);
+        manager.uploadChunk(sessionId, 0, new ByteArrayInputStream(chunk0), null, null);
+
+        // 重启后从磁盘恢复进度
+        UploadSessionManager restarted = new UploadSessionManager(tempDir);
+        Assertions.assertThat(restarted.open("a.bin", data.length, 10, fileMd5).getReceivedChunks()).containsExactly(0, 2);
+        session = restarted.uploadChunk(sessionId, 1, new ByteArrayInputStream(chunk1), null, null);
+        Assertions.assertThat(session.getStatus()).isEqualTo(UploadSessionManager.Status.COMPLETE);
+        Assertions.assertThat(new File(session.getFilePath())).hasBinaryContent(data);
+
+        // 相同的文件不需要再上传
+        UploadSessionManager.UploadSession again = restarted.open("b.bin", data.length, 5, fileMd5);
+        Assertions.assertThat(again.getStatus()).isEqualTo(UploadSessionManager.Status.COMPLETE);
+        Assertions.assertThat(again.getFilePath()).isEqualTo(session.getFilePath());
+        Assertions.assertThat(restarted.getMissingChunks(again.getSessionId())).isEmpty();
+        Assertions.assertThat(restarted.uploadChunk(again.getSessionId(), 0, new ByteArrayInputStream(chunk0), null, null).getStatus())
+                .isEqualTo(UploadSessionManager.Status.COMPLETE);
+    }
+
+    @Test
+    public void fileMd5Mismatch() throws IOException {
+        byte[] data = new byte[10];
+        UploadSessionManager manager = new UploadSessionManager(tempDir);
+        String sessionId = manager.open("a.bin", data.length, 10, "00000000000000000000000000000000").getSessionId();
+        Assertions.assertThatThrownBy(() -> manager.uploadChunk(sessionId, 0, new ByteArrayInputStream(data), null, null))
+                .isInstanceOf(UploadSessionManager.ChecksumMismatchException.class);
+        Assertions.assertThat(manager.getMissingChunks(sessionId)).containsExactly(0);
+
+        manager.delete(sessionId);
+        Assertions.assertThat(manager.getSession(sessionId)).isNull();
+        Assertions.assertThatThrownBy(() -> manager.getSession("../a")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void deleteCompleteSession() throws IOException {
+        byte[] data = new byte[10];
+        new Random(5).nextBytes(data);
+        String fileMd5 = DigestUtils.md5Hex(data);
+        UploadSessionManager manager = new UploadSessionManager(tempDir);
+        String sessionId = manager.open("a.bin", data.length, 10, null).getSessionId();
+        File file = new File(manager.uploadChunk(sessionId, 0, new ByteArrayInputStream(data), null, null).getFilePath());
+
+        // 重启后加载的已完成会话、秒传的会话都没有组装器
+        UploadSessionManager restarted = new UploadSessionManager(tempDir);
+        Assertions.assertThat(restarted.getSession(sessionId).getStatus()).isEqualTo(UploadSessionManager.Status.COMPLETE);
+        restarted.delete(sessionId);
+        Assertions.assertThat(restarted.getSession(sessionId)).isNull();
+        Assertions.assertThat(new File(tempDir, "sessions/" + sessionId)).doesNotExist();
+
+        String dedupId = restarted.open("b.bin", data.length, 10, fileMd5).getSessionId();
+        restarted.delete(dedupId);
+        Assertions.assertThat(restarted.getSession(dedupId)).isNull();
+        Assertions.assertThat(new File(tempDir, "sessions/" + dedupId)).doesNotExist();
+        // 上传完成的文件不删除
+        Assertions.assertThat(file).hasBinaryContent(data);
+
+        // 文件已经不存在时，重新打开会删除已完成的会话并重新上传
+        restarted.open("b.bin", data.length, 10, fileMd5);
+        Files.delete(file.toPath());
+        UploadSessionManager.UploadSession session = new UploadSessionManager(tempDir).open("b.bin", data.length, 10, fileMd5);
+        Assertions.assertThat(session.getStatus()).isEqualTo(UploadSessionManager.Status.UPLOADING);
+        Assertions.assertThat(session.getSessionId()).isEqualTo(dedupId);
+    }
+
+    @Test
+    public void evictIdleSessions() throws Exception {
+        byte[] data = new byte[30];
+        new Random(6).nextBytes(data);
+        UploadSessionManager manager = new UploadSessionManager(tempDir);
+        String sessionId = manager.open("a.bin", data.length, 10, null).getSessionId();
+        manager.uploadChunk(sessionId, 0, new ByteArrayInputStream(Arrays.copyOfRange(data, 0, 10)), null, null);
+        String completeId = manager.open("b.bin", 5, 10, null).getSessionId();
+        manager.uploadChunk(completeId, 0, new ByteArrayInputStream(new byte[5]), null, null);
+
+        Assertions.assertThat(manager.evictIdleSessions(TimeUnit.HOURS.toMillis(1))).isZero();
+        Thread.sleep(20);
+        Assertions.assertThat(manager.evictIdleSessions(10)).isEqualTo(2);
+        Assertions.assertThat(manager.evictIdleSessions(10)).isZero();
+
+        // 清理后从磁盘恢复，继续上传
+        Assertions.assertThat(manager.getMissingChunks(sessionId)).containsExactly(1, 2);
+        Assertions.assertThat(manager.getSession(completeId).getStatus()).isEqualTo(UploadSessionManager.Status.COMPLETE);
+        manager.uploadChunk(sessionId, 2, new ByteArrayInputStream(Arrays.copyOfRange(data, 20, 30)), null, null);
+        Thread.sleep(20);
+        Assertions.assertThat(manager.evictIdleSessions(10)).isEqualTo(2);
+        UploadSessionManager.UploadSession session = manager.uploadChunk(sessionId, 1, new ByteArrayInputStream(Arrays.copyOfRange(data, 10, 20)), null, null);
+        Assertions.assertThat(session.getStatus()).isEqualTo(UploadSessionManager.Status.COMPLETE);
+        Assertions.assertThat(new File(session.getFilePath())).hasBinaryContent(data);
+    }
+
+    @Test
+    public void recoverAfterCrash() throws IOException {
+        byte[] data = new byte[25];
+        new Random(3).nextBytes(data);
+        UploadSessionManager manager = new UploadSessionManager(tempDir);
+        String sessionId = manager.open("a.bin", data.length, 10, null).getSessionId();
+        manager.uploadChunk(sessionId, 0, new ByteArrayInputStream(Arrays.copyOfRange(data, 0, 10)), null, null);
+        manager.uploadChunk(sessionId, 1, new ByteArrayInputStream(Arrays.copyOfRange(data, 10, 20)), null, null);
+
+        // 最后一个分片写入、组装完成后，在保存清单前中断：清单中最后一个分片仍未收到
+        File dataFile = new File(tempDir, "sessions/" + sessionId + "/data");
+        File partFile = new File(dataFile.getPath() + ChunkAssembler.PART_SUFFIX);
+        try (RandomAccessFile file = new RandomAccessFile(partFile, "rw")) {
+            file.seek(20);
+            file.write(data, 20, 5);
+        }
+        Files.move(partFile.toPath(), dataFile.toPath());
+
+        UploadSessionManager restarted = new UploadSessionManager(tempDir);
+        UploadSessionManager.UploadSession session = restarted.getSession(sessionId);
+        Assertions.assertThat(session.getStatus()).isEqualTo(UploadSessionManager.Status.COMPLETE);
+        Assertions.assertThat(session.getFileMd5()).isEqualTo(DigestUtils.md5Hex(data));
+        Assertions.assertThat(new File(session.getFilePath())).hasBinaryContent(data);
+        // 客户端重试最后一个分片
+        session = restarted.uploadChunk(sessionId, 2, new ByteArrayInputStream(Arrays.copyOfRange(data, 20, 25)), null, null);
+        Assertions.assertThat(session.getStatus()).isEqualTo(UploadSessionManager.Status.COMPLETE);
+        Assertions.assertThat(new File(session.getFilePath())).hasBinaryContent(data);
+        Assertions.assertThat(partFile).doesNotExist();
+    }
+
+    @Test
+    public void recoverWithoutDataFile() throws IOException {
+        byte[] data = new byte[20];
+        new Random(4).nextBytes(data);
+        UploadSessionManager manager = new UploadSessionManager(tempDir);
+        String sessionId = manager.open("a.bin", data.length, 10, null).getSessionId();
+        manager.uploadChunk(sessionId, 0, new ByteArrayInputStream(Arrays.copyOfRange(data, 0, 10)), null, null);
+
+        // 组装中的文件丢失：已收到的分片不能当作已收到，否则会用全是0的数据完成上传
+        Files.delete(new File(tempDir, "sessions/" + sessionId + "/data" + ChunkAssembler.PART_SUFFIX).toPath());
+        UploadSessionManager restarted = new UploadSessionManager(tempDir);
+        Assertions.assertThat(restarted.getMissingChunks(sessionId)).containsExactly(0, 1);
+        restarted.uploadChunk(sessionId, 1, new ByteArrayInputStream(Arrays.copyOfRange(data, 10, 20)), null, null);
+        UploadSessionManager.UploadSession session = restarted.uploadChunk(sessionId, 0, new ByteArrayInputStream(Arrays.copyOfRange(data, 0, 10)), null, null);
+        Assertions.assertThat(session.getStatus()).isEqualTo(UploadSessionManager.Status.COMPLETE);
+        Assertions.assertThat(new File(session.getFilePath())).hasBinaryContent(data);
+    }
+
+    @Test
+    public void retryReceivedChunk() throws IOException {
+        byte[] data = new byte[20];
+        new Random(2).nextBytes(data);
+        UploadSessionManager manager = new UploadSessionManager(tempDir);
+        String sessionId = manager.open("a.bin", data.length, 10, null).getSessionId();
+        manager.uploadChunk(sessionId, 0, new ByteArrayInputStream(Arrays.copyOfRange(data, 0, 10)), null, null);
+        // 已经收到的分片的重试即使损坏也不会覆盖已收到的数据
+        byte[] corrupt = new byte[10];
+        manager.uploadChunk(sessionId, 0, new ByteArrayInputStream(corrupt), null, DigestUtils.md5Hex(corrupt));
+        UploadSessionManager.UploadSession session = manager.uploadChunk(sessionId, 1, new ByteArrayInputStream(Arrays.copyOfRange(data, 10, 20)), null, null);
+        Assertions.assertThat(session.getStatus()).isEqualTo(UploadSessionManager.Status.COMPLETE);
+        Assertions.assertThat(new File(session.getFilePath())).hasBinaryContent(data);
+        Assertions.assertThat(session.getFileMd5()).isEqualTo(DigestUtils.md5Hex(data));
+    }
+}
@@ -0,0 +1,94 @@
+package org.jujubeframework.util;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+public class WebUploaderUtilTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void evictIdleAssemblers() throws Exception {
+        File dest = new File(tempDir, "idle.bin");
+        ChunkAssembler assembler = WebUploaderUtil.getAssembler("idle-upload", dest.getPath(), 20, 10);
+        Assertions.assertThat(WebUploaderUtil.getAssembler("idle-upload", dest.getPath(), 20, 10)).isSameAs(assembler);
+        File part = new File(dest.getPath() + ChunkAssembler.PART_SUFFIX);
+        Assertions.assertThat(part).exists();
+
+        Thread.sleep(20);
+        Assertions.assertThat(WebUploaderUtil.evictIdleAssemblers(10)).isEqualTo(1);
+        Assertions.assertThat(part).doesNotExist();
+        ChunkAssembler fresh = WebUploaderUtil.getAssembler("idle-upload", dest.getPath(), 20, 10);
+        Assertions.assertThat(fresh).isNotSameAs(assembler);
+        WebUploaderUtil.cancelUpload("idle-upload");
+    }
+
+    @Test
+    public void retryAfterComplete() throws IOException {
+        byte[] data = new byte[20];
+        new Random(2).nextBytes(data);
+        File dest = new File(tempDir, "done.bin");
+        File part = new File(dest.getPath() + ChunkAssembler.PART_SUFFIX);
+        Assertions.assertThat(WebUploaderUtil.uploadChunk("done-upload", 0, chunk(data, 0, 10), dest.getPath(), 20, 10)).isNull();
+        // 同一个上传id的参数不一致
+        Assertions.assertThatThrownBy(() -> WebUploaderUtil.uploadChunk("done-upload", 1, chunk(data, 10, 20), dest.getPath(), 30, 10))
+                .isInstanceOf(IllegalArgumentException.class);
+        Assertions.assertThatThrownBy(() -> WebUploaderUtil.getAssembler("done-upload", dest.getPath(), 20, 5)).isInstanceOf(IllegalArgumentException.class);
+        Assertions.assertThat(WebUploaderUtil.uploadChunk("done-upload", 1, chunk(data, 10, 20), dest.getPath(), 20, 10)).isEqualTo(dest);
+        Assertions.assertThat(dest).hasBinaryContent(data);
+
+        // 完成后客户端重试的分片直接返回已完成的文件，不会重新开始组装
+        Assertions.assertThat(WebUploaderUtil.uploadChunk("done-upload", 1, chunk(new byte[20], 10, 20), dest.getPath(), 20, 10)).isEqualTo(dest);
+        Assertions.assertThat(part).doesNotExist();
+        Assertions.assertThat(dest).hasBinaryContent(data);
+        WebUploaderUtil.cancelUpload("done-upload");
+        Assertions.assertThat(dest).hasBinaryContent(data);
+    }
+
+    private static MultipartFile chunk(byte[] data, int from, int to) {
+        return new MockMultipartFile("file", Arrays.copyOfRange(data, from, to));
+    }
+
+    @Test
+    public void splitAndMerge() throws IOException {
+        byte[] data = new byte[100_003];
+        new Random(1).nextBytes(data);
+        File source = new File(tempDir, "source.bin");
+        Files.write(source.toPath(), data);
+
+        for (int parallelism : new int[] { 1, 3 }) {
+            File chunkDir = new File(tempDir, "chunks-" + parallelism);
+            WebUploaderUtil.SplitManifest manifest = WebUploaderUtil.splitFile(source.getPath(), 10_000L, chunkDir.getPath(), parallelism);
+            Assertions.assertThat(manifest.getFileSize()).isEqualTo(data.length);
+            Assertions.assertThat(manifest.getChunks()).hasSize(11);
+            Assertions.assertThat(manifest.getChunks().get(10).getLength()).isEqualTo(3);
+            Assertions.assertThat(WebUploaderUtil.readSplitManifest(chunkDir.getPath())).isEqualTo(manifest);
+
+            for (WebUploaderUtil.SplitChunk chunk : manifest.getChunks()) {
+                File chunkFile = new File(chunkDir, String.valueOf(chunk.getIndex()));
+                byte[] expected = Arrays.copyOfRange(data, (int) chunk.getOffset(), (int) (chunk.getOffset() + chunk.getLength()));
+                Assertions.assertThat(chunkFile).hasBinaryContent(expected);
+                CRC32 crc = new CRC32();
+                crc.update(expected);
+                Assertions.assertThat(chunk.getCrc32()).isEqualTo(crc.getValue());
+                Assertions.assertThat(WebUploaderUtil.verifyChunk(chunkFile, chunk)).isTrue();
+            }
+            Assertions.assertThat(new File(chunkDir, WebUploaderUtil.SPLIT_MANIFEST_NAME)).exists();
+
+            // 合并时忽略清单文件
+            File merged = WebUploaderUtil.mergeChunkFile(chunkDir.getPath(), new File(tempDir, "merged-" + parallelism + ".bin").getPath());
+            Assertions.assertThat(merged).hasBinaryContent(data);
+        }
+    }
+}
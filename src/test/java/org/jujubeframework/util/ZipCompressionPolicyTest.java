@@ -0,0 +1,34 @@
+package org.jujubeframework.util;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+public class ZipCompressionPolicyTest {
+
+    @Test
+    public void getCompressionLevel() {
+        ZipCompressionPolicy policy = new ZipCompressionPolicy(9);
+        byte[] text = new byte[4096];
+        byte[] line = "hello world\n".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < text.length; i++) {
+            text[i] = line[i % line.length];
+        }
+        byte[] random = new byte[4096];
+        new Random(1).nextBytes(random);
+
+        Assertions.assertThat(policy.getCompressionLevel("a.txt", text, text.length)).isEqualTo(9);
+        Assertions.assertThat(policy.getCompressionLevel("a/b.JPG", text, text.length)).isEqualTo(Deflater.NO_COMPRESSION);
+        Assertions.assertThat(policy.getCompressionLevel("a.bin", random, random.length)).isEqualTo(Deflater.NO_COMPRESSION);
+        // 采样太少不按熵判断
+        Assertions.assertThat(policy.getCompressionLevel("a.bin", random, 100)).isEqualTo(9);
+
+        ZipCompressionPolicy fixed = ZipCompressionPolicy.fixed(1);
+        Assertions.assertThat(fixed.getCompressionLevel("a.jpg", random, random.length)).isEqualTo(1);
+        Assertions.assertThat(ZipCompressionPolicy.fixed(Deflater.NO_COMPRESSION).getCompressionLevel("a.txt", text, text.length))
+                .isEqualTo(Deflater.NO_COMPRESSION);
+    }
+}
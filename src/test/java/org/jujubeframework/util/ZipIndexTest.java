@@ -0,0 +1,103 @@
+package org.jujubeframework.util;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class ZipIndexTest {
+
+    @TempDir
+    File tempDir;
+
+    private File createZip(String name, String... entries) throws IOException {
+        File zip = new File(tempDir, name);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip), StandardCharsets.UTF_8)) {
+            for (String entry : entries) {
+                out.putNextEntry(new ZipEntry(entry));
+                if (!entry.endsWith("/")) {
+                    out.write(entry.getBytes(StandardCharsets.UTF_8));
+                }
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    @Test
+    public void lookup() throws IOException {
+        File zip = createZip("a.zip", "dir/", "dir/a.txt", "中文.txt");
+        try (ZipIndex index = ZipIndex.open(zip, StandardCharsets.UTF_8)) {
+            Assertions.assertThat(index.size()).isEqualTo(3);
+            Assertions.assertThat(index.containsEntry("dir/a.txt")).isTrue();
+            // 与ZipFile一样，目录可以不带/
+            Assertions.assertThat(index.containsEntry("dir")).isTrue();
+            Assertions.assertThat(index.containsEntry("b.txt")).isFalse();
+            Assertions.assertThat(index.containsAnyEntry(new String[]{"b.txt", "中文.txt"})).isTrue();
+            Assertions.assertThat(new String(index.unpackEntry("中文.txt"), StandardCharsets.UTF_8)).isEqualTo("中文.txt");
+            Assertions.assertThat(index.unpackEntry("b.txt")).isNull();
+        }
+    }
+
+    @Test
+    public void cached() throws IOException {
+        File zip = createZip("b.zip", "a.txt");
+        ZipIndex index = ZipIndex.cached(zip, StandardCharsets.UTF_8);
+        index.close();
+        try (ZipIndex again = ZipIndex.cached(zip, StandardCharsets.UTF_8)) {
+            Assertions.assertThat(again).isSameAs(index);
+            Assertions.assertThat(again.unpackEntry("a.txt")).isEqualTo("a.txt".getBytes(StandardCharsets.UTF_8));
+        }
+
+        // 文件修改后重新解析
+        createZip("b.zip", "a.txt", "b.txt");
+        Assertions.assertThat(zip.setLastModified(zip.lastModified() + 2000)).isTrue();
+        try (ZipIndex modified = ZipIndex.cached(zip, StandardCharsets.UTF_8)) {
+            Assertions.assertThat(modified).isNotSameAs(index);
+            Assertions.assertThat(modified.containsEntry("b.txt")).isTrue();
+        }
+        ZipIndex.evict(zip);
+    }
+
+    @Test
+    public void duplicateEntries() throws IOException {
+        // ZipOutputStream不允许同名entry，先写入b.txt，再把文件中的名称改成a.txt
+        File zip = new File(tempDir, "duplicate.zip");
+        try (ZipRawWriter writer = new ZipRawWriter(new FileOutputStream(zip))) {
+            for (String name : new String[]{"a.txt", "b.txt"}) {
+                byte[] bytes = (name.equals("a.txt") ? "first" : "second").getBytes(StandardCharsets.UTF_8);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                writer.writeEntry(ZipRawEntry.of(name, StandardCharsets.UTF_8, 0, ZipEntry.STORED, crc.getValue(), bytes.length, bytes.length), bytes, 0,
+                        bytes.length);
+            }
+        }
+        byte[] bytes = Files.readAllBytes(zip.toPath());
+        byte[] from = "b.txt".getBytes(StandardCharsets.UTF_8);
+        byte[] to = "a.txt".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i + from.length <= bytes.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + from.length), from)) {
+                System.arraycopy(to, 0, bytes, i, to.length);
+            }
+        }
+        Files.write(zip.toPath(), bytes);
+
+        try (ZipIndex index = ZipIndex.open(zip, StandardCharsets.UTF_8); ZipFile zf = new ZipFile(zip, StandardCharsets.UTF_8)) {
+            Assertions.assertThat(index.size()).isEqualTo(2);
+            Assertions.assertThat(index.getEntryNames()).containsExactly("a.txt", "a.txt");
+            // 与ZipFile一样取最后一个
+            Assertions.assertThat(zf.getEntry("a.txt").getSize()).isEqualTo("second".length());
+            Assertions.assertThat(new String(index.unpackEntry("a.txt"), StandardCharsets.UTF_8)).isEqualTo("second");
+        }
+    }
+}
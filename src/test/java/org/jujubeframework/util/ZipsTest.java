@@ -0,0 +1,469 @@
+package org.jujubeframework.util;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+public class ZipsTest {
+
+    @TempDir
+    File tempDir;
+
+    private final Zips zips = new Zips(StandardCharsets.UTF_8);
+
+    /**
+     * 创建待压缩的目录：普通文件、空文件、空目录、多层目录以及超过内存阈值的大文件
+     */
+    private File createSourceDir() throws IOException {
+        File dir = new File(tempDir, "source");
+        Assertions.assertThat(new File(dir, "empty-dir").mkdirs()).isTrue();
+        Assertions.assertThat(new File(dir, "sub/deep").mkdirs()).isTrue();
+        Files.write(new File(dir, "a.txt").toPath(), text(10_000));
+        Files.write(new File(dir, "empty.txt").toPath(), new byte[0]);
+        Files.write(new File(dir, "sub/b.bin").toPath(), random(200_000, 1));
+        Files.write(new File(dir, "sub/deep/c.txt").toPath(), "中文内容".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir, "sub/large.txt").toPath(), text(9 * 1024 * 1024));
+        return dir;
+    }
+
+    private static byte[] text(int length) {
+        byte[] line = "hello zip\n".getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = line[i % line.length];
+        }
+        return bytes;
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /**
+     * 用ZipFile按中央目录的顺序读取所有entry，同时检查大小与CRC
+     */
+    private static Map<String, byte[]> readZipFile(File zip) throws IOException {
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        try (ZipFile zf = new ZipFile(zip, StandardCharsets.UTF_8)) {
+            Enumeration<? extends ZipEntry> entries = zf.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                byte[] bytes;
+                try (InputStream in = zf.getInputStream(entry)) {
+                    bytes = readAll(in);
+                }
+                Assertions.assertThat(entry.getSize()).as(entry.getName()).isEqualTo(bytes.length);
+                Assertions.assertThat(entry.getCrc()).as(entry.getName()).isEqualTo(crc(bytes));
+                result.put(entry.getName(), bytes);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 用ZipInputStream按本地头顺序读取所有entry，本地头、数据描述符的长度有误都会读取失败
+     */
+    private static Map<String, byte[]> readZipStream(InputStream zip) throws IOException {
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(zip, StandardCharsets.UTF_8)) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                byte[] bytes = readAll(in);
+                Assertions.assertThat(entry.getCrc()).as(entry.getName()).isEqualTo(crc(bytes));
+                result.put(entry.getName(), bytes);
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, Integer> readMethods(File zip) throws IOException {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        try (ZipFile zf = new ZipFile(zip, StandardCharsets.UTF_8)) {
+            Enumeration<? extends ZipEntry> entries = zf.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                result.put(entry.getName(), entry.getMethod());
+            }
+        }
+        return result;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertSameContents(Map<String, byte[]> actual, Map<String, byte[]> expected) {
+        Assertions.assertThat(actual.keySet()).containsExactlyElementsOf(expected.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            Assertions.assertThat(actual.get(entry.getKey())).as(entry.getKey()).isEqualTo(entry.getValue());
+        }
+    }
+
+    @Test
+    public void parallelPack() throws IOException {
+        File source = createSourceDir();
+        File serial = new File(tempDir, "serial.zip");
+        zips.pack(source, serial, name -> name, Deflater.DEFAULT_COMPRESSION);
+        Map<String, byte[]> expected = readZipFile(serial);
+        Assertions.assertThat(expected).containsKeys("empty-dir/", "empty.txt", "sub/", "sub/deep/", "sub/large.txt");
+
+        for (int level : new int[]{Deflater.DEFAULT_COMPRESSION, Deflater.NO_COMPRESSION}) {
+            for (int parallelism : new int[]{1, 4}) {
+                File parallel = new File(tempDir, "parallel-" + level + "-" + parallelism + ".zip");
+                zips.pack(source, parallel, name -> name, level, parallelism);
+                // entry的顺序与串行压缩一致
+                assertSameContents(readZipFile(parallel), expected);
+                assertSameContents(readZipStream(Files.newInputStream(parallel.toPath())), expected);
+                int method = level == Deflater.NO_COMPRESSION ? ZipEntry.STORED : ZipEntry.DEFLATED;
+                Assertions.assertThat(readMethods(parallel).get("sub/large.txt")).isEqualTo(method);
+            }
+        }
+    }
+
+    /**
+     * 读取目录下所有的文件与目录，目录以/结尾
+     */
+    private static Map<String, byte[]> readDir(File dir) throws IOException {
+        Map<String, byte[]> result = new TreeMap<>();
+        readDir(dir, "", result);
+        return result;
+    }
+
+    private static void readDir(File dir, String prefix, Map<String, byte[]> result) throws IOException {
+        File[] files = dir.listFiles();
+        Assertions.assertThat(files).isNotNull();
+        for (File file : files) {
+            if (file.isDirectory()) {
+                result.put(prefix + file.getName() + "/", new byte[0]);
+                readDir(file, prefix + file.getName() + "/", result);
+            } else {
+                result.put(prefix + file.getName(), Files.readAllBytes(file.toPath()));
+            }
+        }
+    }
+
+    @Test
+    public void parallelUnpack() throws IOException {
+        File zip = new File(tempDir, "source.zip");
+        zips.pack(createSourceDir(), zip, name -> name, Deflater.DEFAULT_COMPRESSION);
+        File serial = new File(tempDir, "serial");
+        zips.unpack(zip, serial);
+        Map<String, byte[]> expected = readDir(serial);
+        Assertions.assertThat(expected).containsKeys("empty-dir/", "empty.txt", "sub/deep/c.txt", "sub/large.txt");
+
+        for (int parallelism : new int[]{1, 4}) {
+            File parallel = new File(tempDir, "parallel-" + parallelism);
+            zips.unpack(zip, parallel, name -> name, parallelism);
+            assertSameContents(readDir(parallel), expected);
+        }
+
+        // 去掉唯一的根目录
+        File wrapped = new File(tempDir, "wrapped.zip");
+        zips.pack(new File(tempDir, "source"), wrapped, name -> "root/" + name, Deflater.DEFAULT_COMPRESSION);
+        File unwrapped = new File(tempDir, "unwrapped");
+        zips.unwrap(wrapped, unwrapped, name -> name, 4);
+        assertSameContents(readDir(unwrapped), expected);
+    }
+
+    /**
+     * 每个entry的长度都应该正好到下一个entry的本地头
+     */
+    private static void assertEntryLengths(File zip) throws IOException {
+        try (FileChannel channel = FileChannel.open(zip.toPath(), StandardOpenOption.READ)) {
+            List<ZipRawEntry> entries = ZipCentralDirectory.read(channel, StandardCharsets.UTF_8);
+            for (int i = 0; i + 1 < entries.size(); i++) {
+                ZipRawEntry entry = entries.get(i);
+                Assertions.assertThat(ZipCentralDirectory.entryLength(channel, entry)).as(entry.name)
+                        .isEqualTo(entries.get(i + 1).localHeaderOffset - entry.localHeaderOffset);
+            }
+        }
+    }
+
+    @Test
+    public void rewriteWithDataDescriptor() throws IOException {
+        // ZipOutputStream写入DEFLATED的entry时不知道大小，会在数据之后写数据描述符
+        File zip = new File(tempDir, "descriptor.zip");
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put("dir/", new byte[0]);
+        expected.put("dir/a.txt", text(5000));
+        expected.put("empty.txt", new byte[0]);
+        expected.put("b.bin", random(3000, 2));
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        assertEntryLengths(zip);
+
+        // 新增的STORED entry不知道CRC，写入前计算
+        byte[] stored = random(1000, 3);
+        File added = new File(tempDir, "added.zip");
+        zips.addEntries(zip, new Zips.ZipEntrySource[]{new Zips.ByteSource("new.txt", text(100)),
+                new Zips.StreamSource("stored.bin", 0, ZipEntry.STORED, Deflater.DEFAULT_COMPRESSION, () -> new ByteArrayInputStream(stored)),
+                new Zips.StreamSource("new-dir/", 0, ZipEntry.STORED, Deflater.DEFAULT_COMPRESSION, null)}, added);
+        Map<String, byte[]> expectedAdded = new LinkedHashMap<>(expected);
+        expectedAdded.put("new.txt", text(100));
+        expectedAdded.put("stored.bin", stored);
+        expectedAdded.put("new-dir/", new byte[0]);
+        assertSameContents(readZipFile(added), expectedAdded);
+        assertSameContents(readZipStream(Files.newInputStream(added.toPath())), expectedAdded);
+        Assertions.assertThat(readMethods(added).get("stored.bin")).isEqualTo(ZipEntry.STORED);
+        assertEntryLengths(added);
+
+        File replaced = new File(tempDir, "replaced.zip");
+        Assertions.assertThat(zips.replaceEntry(zip, "empty.txt", text(10), replaced)).isTrue();
+        Map<String, byte[]> expectedReplaced = new LinkedHashMap<>(expected);
+        expectedReplaced.put("empty.txt", text(10));
+        assertSameContents(readZipFile(replaced), expectedReplaced);
+        assertSameContents(readZipStream(Files.newInputStream(replaced.toPath())), expectedReplaced);
+
+        File removed = new File(tempDir, "removed.zip");
+        zips.removeEntries(zip, new String[]{"dir/a.txt"}, removed);
+        expected.remove("dir/a.txt");
+        assertSameContents(readZipFile(removed), expected);
+        assertSameContents(readZipStream(Files.newInputStream(removed.toPath())), expected);
+    }
+
+    @Test
+    public void rewriteWithZip64Descriptor() throws IOException {
+        // 本地头带有zip64扩展字段时，数据描述符中的大小为8字节，与entry的实际大小无关
+        byte[] name = "zip64.txt".getBytes(StandardCharsets.UTF_8);
+        byte[] content = text(100);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(content);
+        deflater.finish();
+        byte[] compressed = new byte[1024];
+        int compressedSize = deflater.deflate(compressed);
+        deflater.end();
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0x04034b50).putShort((short) 45).putShort((short) 0x08).putShort((short) ZipEntry.DEFLATED).putInt(0).putInt(0).putInt(0)
+                .putInt(0).putShort((short) name.length).putShort((short) 20).put(name);
+        buffer.putShort((short) 0x0001).putShort((short) 16).putLong(0).putLong(0);
+        buffer.put(compressed, 0, compressedSize);
+        buffer.putInt(0x08074b50).putInt((int) crc(content)).putLong(compressedSize).putLong(content.length);
+        int entryLength = buffer.position();
+        buffer.putInt(0x02014b50).putShort((short) 45).putShort((short) 45).putShort((short) 0x08).putShort((short) ZipEntry.DEFLATED).putInt(0)
+                .putInt((int) crc(content)).putInt(compressedSize).putInt(content.length).putShort((short) name.length).putShort((short) 0)
+                .putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(0).putInt(0).put(name);
+        int centralLength = buffer.position() - entryLength;
+        buffer.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) 1).putShort((short) 1).putInt(centralLength)
+                .putInt(entryLength).putShort((short) 0);
+        File zip = new File(tempDir, "zip64.zip");
+        Files.write(zip.toPath(), Arrays.copyOf(buffer.array(), buffer.position()));
+
+        try (FileChannel channel = FileChannel.open(zip.toPath(), StandardOpenOption.READ)) {
+            ZipRawEntry entry = ZipCentralDirectory.read(channel, StandardCharsets.UTF_8).get(0);
+            Assertions.assertThat(ZipCentralDirectory.entryLength(channel, entry)).isEqualTo(entryLength);
+        }
+
+        File added = new File(tempDir, "zip64-added.zip");
+        zips.addEntry(zip, "new.txt", text(10), added);
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put("zip64.txt", content);
+        expected.put("new.txt", text(10));
+        assertSameContents(readZipFile(added), expected);
+        // 原entry连同完整的数据描述符一起拷贝
+        assertEntryLengths(added);
+        try (FileChannel channel = FileChannel.open(added.toPath(), StandardOpenOption.READ)) {
+            Assertions.assertThat(ZipCentralDirectory.read(channel, StandardCharsets.UTF_8).get(1).localHeaderOffset).isEqualTo(entryLength);
+        }
+    }
+
+    @Test
+    public void streamingPack() throws IOException {
+        byte[] stored = random(70_000, 4);
+        byte[] known = random(500, 5);
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put("dir/", new byte[0]);
+        expected.put("empty.txt", new byte[0]);
+        expected.put("a.txt", text(100_000));
+        expected.put("stored.bin", stored);
+        expected.put("known.bin", known);
+        List<Zips.ZipEntrySource> sources = new ArrayList<>();
+        sources.add(new Zips.StreamSource("dir/", 0, ZipEntry.STORED, Deflater.DEFAULT_COMPRESSION, null));
+        sources.add(new Zips.ByteSource("empty.txt", new byte[0]));
+        sources.add(new Zips.StreamSource("a.txt", () -> new ByteArrayInputStream(text(100_000))));
+        // 不知道CRC的STORED entry先缓存再写入
+        sources.add(new Zips.StreamSource("stored.bin", 0, ZipEntry.STORED, Deflater.DEFAULT_COMPRESSION, () -> new ByteArrayInputStream(stored)));
+        // 已知大小与CRC的STORED entry直接写入
+        sources.add(new Zips.ZipEntrySource() {
+            @Override
+            public String getPath() {
+                return "known.bin";
+            }
+
+            @Override
+            public ZipEntry getEntry() {
+                ZipEntry entry = new ZipEntry("known.bin");
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(known.length);
+                entry.setCrc(crc(known));
+                return entry;
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream(known);
+            }
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        zips.pack(sources.iterator(), out);
+        assertSameContents(readZipStream(new ByteArrayInputStream(out.toByteArray())), expected);
+
+        File zip = new File(tempDir, "streaming.zip");
+        try (FileChannel channel = FileChannel.open(zip.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            zips.pack(sources.iterator(), channel);
+        }
+        assertSameContents(readZipFile(zip), expected);
+        Map<String, Integer> methods = readMethods(zip);
+        Assertions.assertThat(methods.get("a.txt")).isEqualTo(ZipEntry.DEFLATED);
+        Assertions.assertThat(methods.get("stored.bin")).isEqualTo(ZipEntry.STORED);
+        Assertions.assertThat(methods.get("known.bin")).isEqualTo(ZipEntry.STORED);
+        assertEntryLengths(zip);
+    }
+
+    @Test
+    public void packWithPolicy() throws IOException {
+        File dir = new File(tempDir, "policy");
+        Assertions.assertThat(new File(dir, "empty-dir").mkdirs()).isTrue();
+        // jpg按扩展名判断，内容本身是可以压缩的文本
+        Files.write(new File(dir, "photo.jpg").toPath(), text(20_000));
+        Files.write(new File(dir, "random.bin").toPath(), random(64 * 1024, 6));
+        Files.write(new File(dir, "a.txt").toPath(), text(20_000));
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        Map<String, Integer> methods = new LinkedHashMap<>();
+        methods.put("photo.jpg", ZipEntry.STORED);
+        methods.put("random.bin", ZipEntry.STORED);
+        methods.put("a.txt", ZipEntry.DEFLATED);
+        ZipCompressionPolicy policy = new ZipCompressionPolicy(9);
+
+        File entries = new File(tempDir, "entries.zip");
+        zips.packEntries(new File[]{new File(dir, "photo.jpg"), new File(dir, "random.bin"), new File(dir, "a.txt")}, entries, policy);
+        for (String name : methods.keySet()) {
+            expected.put(name, Files.readAllBytes(new File(dir, name).toPath()));
+        }
+        assertPacked(entries, expected, methods);
+
+        File serial = new File(tempDir, "serial-policy.zip");
+        zips.pack(dir, serial, name -> name, policy);
+        Map<String, byte[]> expectedDir = readZipFile(serial);
+        Assertions.assertThat(expectedDir).containsKeys("empty-dir/", "photo.jpg", "random.bin", "a.txt");
+        assertPacked(serial, expectedDir, methods);
+
+        File parallel = new File(tempDir, "parallel-policy.zip");
+        zips.pack(dir, parallel, name -> name, policy, 4);
+        assertPacked(parallel, expectedDir, methods);
+
+        // 全部DEFLATED的zip按策略重新压缩
+        File deflated = new File(tempDir, "deflated.zip");
+        zips.pack(dir, deflated, name -> name, Deflater.DEFAULT_COMPRESSION);
+        Assertions.assertThat(readMethods(deflated).get("photo.jpg")).isEqualTo(ZipEntry.DEFLATED);
+        File repacked = new File(tempDir, "repacked.zip");
+        zips.repack(deflated, repacked, policy);
+        assertPacked(repacked, expectedDir, methods);
+        zips.repack(deflated, policy);
+        assertPacked(deflated, expectedDir, methods);
+    }
+
+    private static void assertPacked(File zip, Map<String, byte[]> expected, Map<String, Integer> methods) throws IOException {
+        assertSameContents(readZipFile(zip), expected);
+        assertSameContents(readZipStream(Files.newInputStream(zip.toPath())), expected);
+        Map<String, Integer> actual = readMethods(zip);
+        for (Map.Entry<String, Integer> entry : methods.entrySet()) {
+            Assertions.assertThat(actual.get(entry.getKey())).as(entry.getKey()).isEqualTo(entry.getValue());
+        }
+        try (ZipFile zf = new ZipFile(zip, StandardCharsets.UTF_8)) {
+            for (String name : methods.keySet()) {
+                ZipEntry entry = zf.getEntry(name);
+                if (entry.getMethod() == ZipEntry.STORED) {
+                    Assertions.assertThat(entry.getCompressedSize()).as(name).isEqualTo(entry.getSize());
+                }
+            }
+        }
+    }
+
+    /**
+     * 当前进程打开的文件中是否有指定的文件，只在有/proc的系统上可以判断
+     */
+    private static boolean isOpen(File file) throws IOException {
+        File[] fds = new File("/proc/self/fd").listFiles();
+        Assumptions.assumeTrue(fds != null);
+        for (File fd : fds) {
+            try {
+                if (Files.readSymbolicLink(fd.toPath()).equals(file.getAbsoluteFile().toPath())) {
+                    return true;
+                }
+            } catch (IOException ignored) {
+                // 读取期间已关闭的描述符
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void closeAfterRead() throws IOException {
+        File zip = new File(tempDir, "read.zip");
+        zips.pack(createSourceDir(), zip, name -> name, Deflater.DEFAULT_COMPRESSION);
+        Assertions.assertThat(zips.containsEntry(zip, "a.txt")).isTrue();
+        Assertions.assertThat(zips.containsAnyEntry(zip, new String[]{"x", "sub/b.bin"})).isTrue();
+        Assertions.assertThat(zips.unpackEntry(zip, "a.txt")).isEqualTo(text(10_000));
+        Assertions.assertThat(zips.unpackEntry(zip, "sub/deep/c.txt", new File(tempDir, "c.txt"))).isTrue();
+        Assertions.assertThat(zips.entryEquals(zip, zip, "a.txt", "a.txt")).isTrue();
+        // 读取后不再占用文件，可以删除或替换
+        Assertions.assertThat(isOpen(zip)).isFalse();
+
+        try (ZipIndex index = zips.index(zip)) {
+            Assertions.assertThat(index.containsEntry("a.txt")).isTrue();
+        }
+        // 缓存的句柄一直打开，直到从缓存中移除
+        Assertions.assertThat(isOpen(zip)).isTrue();
+        ZipIndex.evict(zip);
+        Assertions.assertThat(isOpen(zip)).isFalse();
+    }
+}
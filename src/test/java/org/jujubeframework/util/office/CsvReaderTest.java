@@ -1,26 +1,96 @@
 package org.jujubeframework.util.office;
 
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.io.FileUtils;
+import org.jujubeframework.constant.Charsets;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class CsvReaderTest {
 
+    @TempDir
+    File tempDir;
+
+    private File createCsv() throws IOException {
+        File file = new File(tempDir, "test.csv");
+        FileUtils.writeStringToFile(file, "ID,名称\n1, 张三 \n2,\"李,四\"\n3,\"王\n五\"\n", CsvReader.DEFAULT_CHARSET);
+        return file;
+    }
+
+    @Test
+    public void getRow() throws IOException {
+        CsvReader reader = new CsvReader(createCsv(), CsvReader.DEFAULT_CHARSET, ExcelReaderConfig.DEFAULT);
+        assertThat(reader.getRow(0)).containsExactly("ID", "名称");
+        assertThat(reader.getRow(1)).containsExactly("1", "张三");
+        assertThat(reader.getRow(2)).containsExactly("2", "李,四");
+        assertThat(reader.getRow(3)).containsExactly("3", "王\n五");
+    }
+
+    @Test
+    public void iterator() throws IOException {
+        File csv = createCsv();
+        CsvReader reader = new CsvReader(csv, CsvReader.DEFAULT_CHARSET, ExcelReaderConfig.DEFAULT);
+        CsvReader lazyReader = new CsvReader(csv, CsvReader.DEFAULT_CHARSET, ExcelReaderConfig.DEFAULT, CSVFormat.DEFAULT, true);
+        assertThat(lazyReader.getRows()).isEqualTo(reader.getRows());
+        // 懒加载模式下可以重复迭代
+        Iterator<List<String>> iterator = lazyReader.iterator();
+        assertThat(iterator.next()).containsExactly("ID", "名称");
+        assertThat(lazyReader.iterator().next()).containsExactly("ID", "名称");
+        lazyReader.close();
+        assertThatThrownBy(() -> lazyReader.getRow(0)).isInstanceOf(UnsupportedOperationException.class);
+    }
+
     @Test
-    public void getRow() {
+    public void stream() throws IOException {
+        CsvReader lazyReader = new CsvReader(createCsv(), Charsets.GBK, ExcelReaderConfig.DEFAULT, CSVFormat.DEFAULT, true);
+        try (Stream<List<String>> rows = lazyReader.stream()) {
+            assertThat(rows.skip(1).map(row -> row.get(0)).collect(Collectors.toList())).isEqualTo(Arrays.asList("1", "2", "3"));
+        }
     }
 
     @Test
-    public void iterator() {
+    public void close() throws IOException {
+        File csv = createCsv();
+        CsvReader lazyReader = new CsvReader(csv, CsvReader.DEFAULT_CHARSET, ExcelReaderConfig.DEFAULT, CSVFormat.DEFAULT, true);
+        lazyReader.iterator().next();
+        lazyReader.close();
+        // 句柄已释放，文件可以被删除
+        assertThat(csv.delete()).isTrue();
     }
 
     @Test
-    public void close() {
+    public void getRowCount() throws IOException {
+        File csv = createCsv();
+        assertThat(new CsvReader(csv, CsvReader.DEFAULT_CHARSET, ExcelReaderConfig.DEFAULT).getRowCount()).isEqualTo(4);
+        assertThat(new CsvReader(csv, CsvReader.DEFAULT_CHARSET, ExcelReaderConfig.DEFAULT, CSVFormat.DEFAULT, true).getRowCount()).isEqualTo(4);
     }
 
     @Test
-    public void getRowCount() {
+    public void parseError() throws IOException {
+        File file = new File(tempDir, "error.csv");
+        // 引号没有闭合，解析失败
+        FileUtils.writeStringToFile(file, "ID,名称\n1,\"张三\n", CsvReader.DEFAULT_CHARSET);
+        CsvReader reader = new CsvReader(file, CsvReader.DEFAULT_CHARSET, ExcelReaderConfig.DEFAULT);
+        assertThat(reader.getRowCount()).isZero();
+        assertThat(reader.iterator().hasNext()).isFalse();
+        assertThat(reader.getRows()).isEmpty();
+        assertThat(reader.stream().count()).isZero();
     }
 
     @Test
-    public void getFile() {
+    public void getFile() throws IOException {
+        File csv = createCsv();
+        assertThat(new CsvReader(csv, CsvReader.DEFAULT_CHARSET, ExcelReaderConfig.DEFAULT).getFile()).isEqualTo(csv);
     }
-}
\ No newline at end of file
+}
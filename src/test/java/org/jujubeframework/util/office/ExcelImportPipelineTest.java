@@ -0,0 +1,81 @@
+package org.jujubeframework.util.office;
+
+import org.apache.commons.io.FileUtils;
+import org.jujubeframework.util.Resources;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ExcelImportPipelineTest {
+
+    @Test
+    public void workbookReader() throws IOException {
+        Resource resource = Resources.getClassPathResources("material/testRealCount.xlsx");
+        try (FileInputStream inputStream = FileUtils.openInputStream(resource.getFile());
+                ExcelWorkbookReader workbookReader = new ExcelWorkbookReader(inputStream, ExcelReaderConfig.DEFAULT)) {
+            assertThat(workbookReader.getNumberOfSheets()).isGreaterThanOrEqualTo(1);
+            ExcelReader reader = workbookReader.getSheet(0);
+            assertThat(reader).isSameAs(workbookReader.getSheet(workbookReader.getSheetNames().get(0)));
+            assertThat(reader.getRowCount()).isEqualTo(9);
+            assertThat(reader.getRow(0).get(0)).isEqualTo("ID");
+        }
+    }
+
+    @Test
+    public void process() throws IOException {
+        Resource resource = Resources.getClassPathResources("material/testRealCount.xlsx");
+        try (FileInputStream inputStream = FileUtils.openInputStream(resource.getFile());
+                ExcelWorkbookReader workbookReader = new ExcelWorkbookReader(inputStream, ExcelReaderConfig.DEFAULT)) {
+            AtomicInteger count = new AtomicInteger();
+            ExcelImportPipeline pipeline = new ExcelImportPipeline(2, 2, 1);
+            ExcelImportPipeline.Stats stats = pipeline.process(workbookReader.getSheet(0), 1, chunk -> {
+                assertThat(chunk.size()).isLessThanOrEqualTo(2);
+                count.addAndGet(chunk.size());
+            });
+            assertThat(count.get()).isEqualTo(8);
+            assertThat(stats.getRowNum()).isEqualTo(8);
+            assertThat(stats.getChunkNum()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void processFailure() throws IOException {
+        Resource resource = Resources.getClassPathResources("material/testRealCount.xlsx");
+        try (FileInputStream inputStream = FileUtils.openInputStream(resource.getFile())) {
+            ExcelReader reader = new ExcelReader(inputStream, 0, ExcelReaderConfig.DEFAULT);
+            ExcelImportPipeline pipeline = new ExcelImportPipeline(3);
+            assertThatThrownBy(() -> pipeline.process(reader, 0, (List<List<String>> chunk) -> {
+                throw new IllegalStateException("invalid row");
+            })).hasRootCauseInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Test
+    public void processWithSlowHandler() {
+        List<List<String>> rows = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            rows.add(Collections.singletonList(String.valueOf(i)));
+        }
+        AtomicInteger count = new AtomicInteger();
+        // 块很小、处理很慢，读取线程一直处于背压状态，提交不能被线程池拒绝
+        ExcelImportPipeline.Stats stats = new ExcelImportPipeline(1, 4, 1).process(rows, 0, chunk -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            count.addAndGet(chunk.size());
+        });
+        assertThat(count.get()).isEqualTo(500);
+        assertThat(stats.getChunkNum()).isEqualTo(500);
+    }
+}
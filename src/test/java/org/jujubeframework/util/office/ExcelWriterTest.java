@@ -0,0 +1,111 @@
+package org.jujubeframework.util.office;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExcelWriterTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void generateExcelStreaming() throws IOException {
+        File dest = new File(tempDir, "stream.xlsx");
+        // 窗口小于总行数，验证已刷出到临时文件的行也能正确写入
+        long count = ExcelWriter.generateExcel(dest, IntStream.range(0, 1000).mapToObj(i -> Arrays.asList(String.valueOf(i), "name" + i)).iterator(), 10);
+        assertThat(count).isEqualTo(1000);
+        try (InputStream inputStream = new FileInputStream(dest)) {
+            ExcelReader reader = new ExcelReader(inputStream, 0, ExcelReaderConfig.DEFAULT);
+            assertThat(reader.getRowCount()).isEqualTo(1000);
+            assertThat(reader.getRow(0)).containsExactly("0", "name0");
+            assertThat(reader.getRow(999)).containsExactly("999", "name999");
+        }
+    }
+
+    @Test
+    public void generateExcelInputStream() throws IOException {
+        List<List<String>> lines = Arrays.asList(Arrays.asList("ID", "名称"), Arrays.asList("1", "张三"));
+        try (InputStream inputStream = ExcelWriter.generateExcelInputStream(lines)) {
+            ExcelReader reader = new ExcelReader(inputStream, 0, ExcelReaderConfig.DEFAULT);
+            assertThat(reader.getRows()).isEqualTo(lines);
+        }
+    }
+
+    @Test
+    public void writeExcelWithTemplate() throws IOException {
+        File template = new File(tempDir, "template.xlsx");
+        ExcelWriter.generateExcel(template, Arrays.asList(Arrays.asList("ID", "名称"), Arrays.asList("示例", "示例"), Arrays.asList("示例", "示例")));
+        for (int i = 0; i < 2; i++) {
+            File dest = new File(tempDir, "dest" + i + ".xlsx");
+            try (OutputStream out = new FileOutputStream(dest)) {
+                long count = ExcelWriter.writeExcelWithTemplate(template.getAbsolutePath(), out, 1,
+                        IntStream.range(0, 300).mapToObj(j -> Arrays.asList(String.valueOf(j), "name" + j)).iterator(), null);
+                assertThat(count).isEqualTo(300);
+            }
+            try (InputStream inputStream = new FileInputStream(dest)) {
+                ExcelReader reader = new ExcelReader(inputStream, 0, ExcelReaderConfig.DEFAULT);
+                assertThat(reader.getRowCount()).isEqualTo(301);
+                assertThat(reader.getRow(0)).containsExactly("ID", "名称");
+                assertThat(reader.getRow(1)).containsExactly("0", "name0");
+                assertThat(reader.getRow(300)).containsExactly("299", "name299");
+            }
+        }
+    }
+
+    @Test
+    public void sheetHandlerReadsTemplateRows() throws IOException {
+        File template = new File(tempDir, "template.xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(template)) {
+            Sheet sheet = workbook.createSheet();
+            for (int i = 0; i < 2; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(i == 0 ? "ID" : "示例");
+                row.createCell(1).setCellValue(i == 0 ? "名称" : "示例");
+            }
+            workbook.write(out);
+        }
+        // 处理器可以读取、修改模板中保留的行
+        ExcelSheetHandler handler = sheet -> sheet.getRow(0).getCell(1).setCellValue("姓名");
+
+        File legacy = ExcelWriter.writeExcelWithTemplate(template.getAbsolutePath(), "legacy.xlsx", 1, Arrays.asList(Arrays.asList("1", "张三")), handler);
+        try (InputStream inputStream = new FileInputStream(legacy)) {
+            ExcelReader reader = new ExcelReader(inputStream, 0, ExcelReaderConfig.DEFAULT);
+            assertThat(reader.getRows()).containsExactly(Arrays.asList("ID", "姓名"), Arrays.asList("1", "张三"));
+        }
+
+        File dest = new File(tempDir, "dest.xlsx");
+        try (OutputStream out = new FileOutputStream(dest)) {
+            ExcelWriter.writeExcelWithTemplate(template.getAbsolutePath(), out, 1, Arrays.asList(Arrays.asList("1", "张三")).iterator(), handler);
+        }
+        try (InputStream inputStream = new FileInputStream(dest)) {
+            ExcelReader reader = new ExcelReader(inputStream, 0, ExcelReaderConfig.DEFAULT);
+            assertThat(reader.getRows()).containsExactly(Arrays.asList("ID", "姓名"), Arrays.asList("1", "张三"));
+        }
+    }
+
+    @Test
+    public void generateCsv() throws IOException {
+        File dest = new File(tempDir, "dest.csv");
+        List<List<String>> lines = Arrays.asList(Arrays.asList("ID", "名称"), null, Arrays.asList("1", "李,\"四\""), Arrays.asList("2", "王\n五"));
+        ExcelWriter.generateCsv(dest, lines);
+        CsvReader reader = new CsvReader(dest, CsvReader.DEFAULT_CHARSET, ExcelReaderConfig.ALL_FALSE);
+        assertThat(reader.getRowCount()).isEqualTo(3);
+        assertThat(reader.getRow(1)).containsExactly("1", "李,\"四\"");
+        assertThat(reader.getRow(2)).containsExactly("2", "王\n五");
+    }
+}
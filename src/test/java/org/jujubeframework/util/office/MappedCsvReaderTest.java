@@ -0,0 +1,63 @@
+package org.jujubeframework.util.office;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.io.FileUtils;
+import org.jujubeframework.constant.Charsets;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappedCsvReaderTest {
+
+    @TempDir
+    File tempDir;
+
+    private File createCsv() throws IOException {
+        File file = new File(tempDir, "test.csv");
+        FileUtils.writeStringToFile(file, "ID,名称\r\n1, 张三 \r\n\r\n2,\"李,四\"\n3,\"王\n\"\"五\"\"\"\n4,,\n5", CsvReader.DEFAULT_CHARSET);
+        return file;
+    }
+
+    @Test
+    public void sameAsCsvReader() throws IOException {
+        File csv = createCsv();
+        List<List<String>> expected = new CsvReader(csv, CsvReader.DEFAULT_CHARSET, ExcelReaderConfig.DEFAULT, CSVFormat.DEFAULT).getRows();
+        // 区块大小为1时，每一行都是一个区块，可以验证引号内换行不会被切分
+        for (int chunkSize : new int[] { 1, 7, MappedCsvReader.DEFAULT_CHUNK_SIZE }) {
+            try (MappedCsvReader reader = new MappedCsvReader(csv, CsvReader.DEFAULT_CHARSET, ExcelReaderConfig.DEFAULT, chunkSize)) {
+                List<List<String>> rows = new ArrayList<>();
+                reader.forEach(rows::add);
+                assertThat(rows).isEqualTo(expected);
+                assertThat(reader.getRowCount()).isEqualTo(expected.size());
+            }
+        }
+    }
+
+    @Test
+    public void parallelForEachRow() throws IOException {
+        try (MappedCsvReader reader = new MappedCsvReader(createCsv(), CsvReader.DEFAULT_CHARSET, ExcelReaderConfig.DEFAULT, 1)) {
+            List<String> ids = Collections.synchronizedList(new ArrayList<>());
+            reader.parallelForEachRow(row -> ids.add(row.get(0)), 3);
+            assertThat(ids).containsExactlyInAnyOrder("ID", "1", "2", "3", "4", "5");
+        }
+    }
+
+    @Test
+    public void utf8Bom() throws IOException {
+        File csv = new File(tempDir, "bom.csv");
+        FileUtils.writeStringToFile(csv, "\uFEFFID,名称\n1,张三", Charsets.UTF_8);
+        try (MappedCsvReader reader = new MappedCsvReader(csv, Charsets.UTF_8, ExcelReaderConfig.DEFAULT)) {
+            List<List<String>> rows = new ArrayList<>();
+            reader.forEach(rows::add);
+            assertThat(rows.get(0)).containsExactly("ID", "名称");
+            assertThat(rows.get(1)).containsExactly("1", "张三");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.jujubeframework.util.office;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PdfBatchRendererTest {
+
+    @Test
+    public void render() {
+        Map<String, ByteArrayOutputStream> outputs = new ConcurrentHashMap<>();
+        PdfBatchRenderer.Sink failingClose = () -> new FilterOutputStream(new ByteArrayOutputStream()) {
+            @Override
+            public void close() throws IOException {
+                throw new IOException("close failed");
+            }
+        };
+        Stream<PdfBatchRenderer.Job> jobs = Stream.of(new PdfBatchRenderer.Job("ok-1", PdfWritersTest.html("one"), sink(outputs, "ok-1")),
+                new PdfBatchRenderer.Job("bad-html", "<html><body><p>unclosed</body>", sink(outputs, "bad-html")),
+                new PdfBatchRenderer.Job("bad-sink", PdfWritersTest.html("three"), () -> {
+                    throw new IOException("sink unavailable");
+                }), new PdfBatchRenderer.Job("bad-close", PdfWritersTest.html("four"), failingClose),
+                new PdfBatchRenderer.Job("ok-2", PdfWritersTest.html("five"), sink(outputs, "ok-2")));
+
+        PdfBatchRenderer.BatchReport report = new PdfBatchRenderer(2).render(jobs);
+        List<String> ids = report.getResults().stream().map(PdfBatchRenderer.JobResult::getId).collect(Collectors.toList());
+        assertThat(ids).containsExactly("ok-1", "bad-html", "bad-sink", "bad-close", "ok-2");
+        List<String> failed = report.getFailures().stream().map(PdfBatchRenderer.JobResult::getId).collect(Collectors.toList());
+        assertThat(failed).containsExactly("bad-html", "bad-sink", "bad-close");
+        report.getFailures().forEach(result -> assertThat(result.getError()).isNotNull());
+        assertThat(new String(outputs.get("ok-1").toByteArray(), 0, 4)).isEqualTo("%PDF");
+        assertThat(new String(outputs.get("ok-2").toByteArray(), 0, 4)).isEqualTo("%PDF");
+    }
+
+    @Test
+    public void jobStreamFailure() {
+        Map<String, ByteArrayOutputStream> outputs = new ConcurrentHashMap<>();
+        Stream<PdfBatchRenderer.Job> jobs = IntStream.range(0, 5).mapToObj(i -> {
+            if (i == 3) {
+                throw new IllegalStateException("broken job source");
+            }
+            return new PdfBatchRenderer.Job("job-" + i, PdfWritersTest.html("job " + i), sink(outputs, "job-" + i));
+        });
+
+        PdfBatchRenderer.BatchReport report = new PdfBatchRenderer(2).render(jobs);
+        // 出错之前的任务正常完成，出错的位置记录为失败的结果，之后不再拉取任务
+        assertThat(report.getResults()).hasSize(4);
+        assertThat(report.getFailures()).hasSize(1);
+        PdfBatchRenderer.JobResult failure = report.getFailures().get(0);
+        assertThat(failure.getIndex()).isEqualTo(3);
+        assertThat(failure.getId()).isNull();
+        assertThat(failure.getError()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void invalidJob() {
+        Map<String, ByteArrayOutputStream> outputs = new ConcurrentHashMap<>();
+        Stream<PdfBatchRenderer.Job> jobs = Stream.of(new PdfBatchRenderer.Job("ok-1", PdfWritersTest.html("one"), sink(outputs, "ok-1")), null,
+                new PdfBatchRenderer.Job("null-sink", PdfWritersTest.html("three"), null),
+                new PdfBatchRenderer.Job("null-stream", PdfWritersTest.html("four"), () -> null),
+                new PdfBatchRenderer.Job("ok-2", PdfWritersTest.html("five"), sink(outputs, "ok-2")));
+
+        // 无效的任务记录为失败的结果，不影响工作线程继续处理后续任务
+        PdfBatchRenderer.BatchReport report = new PdfBatchRenderer(1).render(jobs);
+        List<String> ids = report.getResults().stream().map(PdfBatchRenderer.JobResult::getId).collect(Collectors.toList());
+        assertThat(ids).containsExactly("ok-1", null, "null-sink", "null-stream", "ok-2");
+        List<Integer> failed = report.getFailures().stream().map(PdfBatchRenderer.JobResult::getIndex).collect(Collectors.toList());
+        assertThat(failed).containsExactly(1, 2, 3);
+        report.getFailures().forEach(result -> assertThat(result.getError()).isInstanceOf(NullPointerException.class));
+        assertThat(new String(outputs.get("ok-2").toByteArray(), 0, 4)).isEqualTo("%PDF");
+    }
+
+    private static PdfBatchRenderer.Sink sink(Map<String, ByteArrayOutputStream> outputs, String id) {
+        return () -> outputs.computeIfAbsent(id, key -> new ByteArrayOutputStream());
+    }
+}
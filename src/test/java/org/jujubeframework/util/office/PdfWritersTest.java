@@ -0,0 +1,39 @@
+package org.jujubeframework.util.office;
+
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PdfWritersTest {
+
+    static String html(String text) {
+        return "<html><head><style>body{font-size:14px}</style></head><body><p>" + text + "</p></body></html>";
+    }
+
+    static String text(byte[] pdf) throws IOException {
+        PdfReader reader = new PdfReader(pdf);
+        try {
+            return PdfTextExtractor.getTextFromPage(reader, 1);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void renderTwiceThroughPool() throws IOException {
+        PdfWriters.warmUp(1);
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        PdfWriters.createPdfFromHtml(html("first document"), first);
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        PdfWriters.createPdfFromHtml(html("second document"), second);
+
+        // 复用的渲染器不会带上上一个文档的内容
+        assertThat(text(first.toByteArray())).contains("first document").doesNotContain("second document");
+        assertThat(text(second.toByteArray())).contains("second document").doesNotContain("first document");
+    }
+}
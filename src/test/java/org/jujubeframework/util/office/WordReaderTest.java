@@ -0,0 +1,80 @@
+package org.jujubeframework.util.office;
+
+import org.jujubeframework.util.Resources;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class WordReaderTest {
+
+    @TempDir
+    File tempDir;
+
+    /**
+     * 复制测试文件，文件名可以与实际格式不符
+     */
+    private File copy(String resource, String fileName) throws IOException {
+        File file = new File(tempDir, fileName);
+        Files.copy(Resources.getClassPathResources("material/" + resource).getFile().toPath(), file.toPath());
+        return file;
+    }
+
+    private static List<String> readParagraphs(File file) throws IOException {
+        List<String> paragraphs = new ArrayList<>();
+        WordReader.readParagraphs(file.getAbsolutePath(), paragraphs::add);
+        return paragraphs;
+    }
+
+    @Test
+    public void detectFormat() throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(copy("word.doc", "a.doc")))) {
+            assertThat(WordReader.detectFormat(in)).isEqualTo(WordReader.WordFormat.DOC);
+            // 读取后重置到文件开头
+            assertThat(WordReader.detectFormat(in)).isEqualTo(WordReader.WordFormat.DOC);
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(copy("word.docx", "a.docx")))) {
+            assertThat(WordReader.detectFormat(in)).isEqualTo(WordReader.WordFormat.DOCX);
+        }
+        assertThat(WordReader.detectFormat(new ByteArrayInputStream("text".getBytes(StandardCharsets.UTF_8)))).isEqualTo(WordReader.WordFormat.UNKNOWN);
+        assertThat(WordReader.detectFormat(new ByteArrayInputStream(new byte[0]))).isEqualTo(WordReader.WordFormat.UNKNOWN);
+    }
+
+    @Test
+    public void readParagraphs() throws IOException {
+        assertThat(readParagraphs(copy("word.doc", "a.doc"))).containsExactly("第一段", "Second paragraph");
+        // 表格的每一行作为一段
+        assertThat(readParagraphs(copy("word.docx", "a.docx"))).containsExactly("第一段", "Second paragraph", "a\tb", "c\td");
+
+        StringWriter writer = new StringWriter();
+        WordReader.writeWordContent(copy("word.docx", "b.docx").getAbsolutePath(), writer);
+        assertThat(writer.toString()).isEqualTo("第一段\nSecond paragraph\na\tb\nc\td\n");
+    }
+
+    @Test
+    public void wrongExtension() throws IOException {
+        // 按文件头判断格式，与扩展名无关
+        assertThat(readParagraphs(copy("word.doc", "doc-named.docx"))).containsExactly("第一段", "Second paragraph");
+        assertThat(readParagraphs(copy("word.docx", "docx-named.doc"))).containsExactly("第一段", "Second paragraph", "a\tb", "c\td");
+        assertThat(WordReader.getWordContent(copy("word.doc", "doc-named.txt").getAbsolutePath())).contains("第一段", "Second paragraph");
+        assertThat(WordReader.getWordContent(copy("word.docx", "docx-named.txt").getAbsolutePath())).contains("第一段", "Second paragraph");
+
+        File text = new File(tempDir, "text.doc");
+        Files.write(text.toPath(), "not a word file".getBytes(StandardCharsets.UTF_8));
+        assertThatThrownBy(() -> readParagraphs(text)).isInstanceOf(IOException.class);
+        assertThat(WordReader.getWordContent(text.getAbsolutePath())).isEmpty();
+    }
+}